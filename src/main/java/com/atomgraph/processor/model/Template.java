@@ -27,6 +27,7 @@ import javax.ws.rs.core.CacheControl;
 import org.apache.jena.ontology.OntClass;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
 
 /**
  *
@@ -69,14 +70,18 @@ public interface Template extends OntClass
    
     Map<String, Parameter> getParameterMap();
 
-    // Map<Property, RDFNode> getDefaultValues();
+    Map<Property, RDFNode> getDefaultValues();
 
     List<Locale> getLanguages();
     
     org.apache.jena.rdf.model.Resource getLoadClass();
     
     CacheControl getCacheControl();
+    
+    List<String> getLinks(String ontologyURI, URI base);
 
+    org.apache.jena.query.Query getQuery(URI base);
+    
     QueryBuilder getQueryBuilder(URI base);
         
     QueryBuilder getQueryBuilder(URI base, Model commandModel);
@@ -87,4 +92,6 @@ public interface Template extends OntClass
     
     boolean hasSuperTemplate(Template superTemplate);
 
+    boolean hasSuperTemplate(String superTemplateURI);
+
 }
@@ -20,6 +20,9 @@ import org.apache.jena.enhanced.EnhNode;
 import org.apache.jena.enhanced.Implementation;
 import org.apache.jena.graph.Node;
 import org.apache.jena.ontology.ConversionException;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.vocabulary.RDF;
 import com.atomgraph.processor.vocabulary.LDT;
 import org.slf4j.Logger;
@@ -65,11 +68,59 @@ public class ParameterImpl extends org.spinrdf.model.impl.ArgumentImpl implement
         }
     };
     
+    private volatile Property predicate;
+    private volatile Resource valueType;
+    private volatile RDFNode defaultValue;
+    private volatile Boolean optional;
+    private volatile boolean valueTypeRead, defaultValueRead;
+    
     public ParameterImpl(Node node, EnhGraph enhGraph)
     {
         super(node, enhGraph);
     }
     
+    // parameters are reused for all requests against the same sitemap, so their properties are read only once
+
+    @Override
+    public Property getPredicate()
+    {
+        if (predicate == null) predicate = super.getPredicate();
+        
+        return predicate;
+    }
+
+    @Override
+    public Resource getValueType()
+    {
+        if (!valueTypeRead)
+        {
+            valueType = super.getValueType();
+            valueTypeRead = true;
+        }
+        
+        return valueType;
+    }
+
+    @Override
+    public RDFNode getDefaultValue()
+    {
+        if (!defaultValueRead)
+        {
+            defaultValue = super.getDefaultValue();
+            defaultValueRead = true;
+        }
+        
+        return defaultValue;
+    }
+
+    @Override
+    public boolean isOptional()
+    {
+        if (optional == null) optional = super.isOptional();
+        
+        return optional;
+    }
+    
     @Override
     public String toString()
     {
@@ -17,10 +17,15 @@ package com.atomgraph.processor.model.impl;
 
 import com.sun.jersey.api.uri.UriTemplate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import javax.ws.rs.core.CacheControl;
 import org.apache.jena.enhanced.EnhGraph;
 import org.apache.jena.enhanced.EnhNode;
@@ -34,18 +39,22 @@ import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.Statement;
 import org.apache.jena.rdf.model.StmtIterator;
 import org.apache.jena.vocabulary.RDF;
+import com.atomgraph.core.util.Link;
 import com.atomgraph.processor.exception.OntologyException;
 import com.atomgraph.processor.model.Template;
 import com.atomgraph.processor.query.QueryBuilder;
 import com.atomgraph.processor.update.ModifyBuilder;
 import com.atomgraph.processor.vocabulary.LDT;
 import java.net.URI;
-import java.util.Iterator;
 import java.util.Map.Entry;
 import org.apache.jena.ontology.OntClass;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.apache.jena.query.ParameterizedSparqlString;
+import org.apache.jena.query.Query;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.RDFList;
+import org.apache.jena.sparql.syntax.syntaxtransform.QueryTransformOps;
 import org.apache.jena.util.iterator.ExtendedIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -92,6 +101,14 @@ public class TemplateImpl extends OntClassImpl implements Template
         }
     };
     
+    private final ConcurrentMap<URI, Query> queries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<List<String>, List<String>> links = new ConcurrentHashMap<>();
+    private volatile Map<Property, Parameter> parameters;
+    private volatile Map<String, Parameter> parameterMap;
+    private volatile Map<Property, RDFNode> defaultValues;
+    private volatile List<Template> superTemplates;
+    private volatile Set<String> superTemplateURIs;
+    
     public TemplateImpl(Node n, EnhGraph g)
     {
         super(n, g);
@@ -139,10 +156,23 @@ public class TemplateImpl extends OntClassImpl implements Template
         return Double.valueOf(0);
     }
 
+    /**
+     * Returns parameters of this template, including inherited ones.
+     * The map is computed once and cached, since templates are reused for all requests against the same sitemap.
+     * 
+     * @return unmodifiable predicate/parameter map
+     */
     @Override
     public Map<Property, Parameter> getParameters()
     {
-        return addSuperParameters(this, getLocalParameters());
+        Map<Property, Parameter> params = parameters;
+        if (params == null)
+        {
+            params = Collections.unmodifiableMap(addSuperParameters(getLocalParameters()));
+            parameters = params;
+        }
+        
+        return params;
     }
     
     @Override
@@ -180,29 +210,59 @@ public class TemplateImpl extends OntClassImpl implements Template
         return args;
     }
     
-    protected Map<Property, Parameter> addSuperParameters(Template template, Map<Property, Parameter> args)
+    /**
+     * Adds parameters of super-templates, in the order of <code>getSuperTemplates()</code>.
+     * Parameters of a super-template do not override ones that already exist for the same predicate.
+     * 
+     * @param args parameter map
+     * @return the same parameter map
+     */
+    protected Map<Property, Parameter> addSuperParameters(Map<Property, Parameter> args)
     {
-        if (template == null) throw new IllegalArgumentException("Template Set cannot be null");        
         if (args == null) throw new IllegalArgumentException("Parameter Map cannot be null");        
         
-        ExtendedIterator<OntClass> superIt = template.listSuperClasses();
+        for (Template superTemplate : getSuperTemplates())
+            for (Entry<Property, Parameter> entry : superTemplate.getLocalParameters().entrySet())
+                args.putIfAbsent(entry.getKey(), entry.getValue()); // reject Parameters for existing predicates
+
+        return args;
+    }
+    
+    /**
+     * Returns transitive closure of super-templates, in depth-first order, without this template.
+     * The closure is computed once and cached.
+     * 
+     * @return unmodifiable template list
+     */
+    public List<Template> getSuperTemplates()
+    {
+        List<Template> templates = superTemplates;
+        if (templates == null)
+        {
+            Map<String, Template> closure = new LinkedHashMap<>();
+            addSuperTemplates(this, closure);
+            templates = Collections.unmodifiableList(new ArrayList<>(closure.values()));
+            superTemplateURIs = Collections.unmodifiableSet(new HashSet<>(closure.keySet()));
+            superTemplates = templates;
+        }
+        
+        return templates;
+    }
+    
+    protected void addSuperTemplates(Template template, Map<String, Template> closure)
+    {
+        ExtendedIterator<OntClass> superIt = template.listSuperClasses(false);
         try
         {
             while (superIt.hasNext())
             {
                 OntClass superClass = superIt.next();
-                if (superClass.canAs(Template.class))
+                if (superClass.isURIResource() && !superClass.getURI().equals(getURI()) &&
+                        !closure.containsKey(superClass.getURI()) && superClass.canAs(Template.class))
                 {
                     Template superTemplate = superClass.as(Template.class);
-                    Map<Property, Parameter> superArgs = superTemplate.getLocalParameters();
-                    Iterator<Entry<Property, Parameter>> entryIt = superArgs.entrySet().iterator();
-                    while (entryIt.hasNext())
-                    {
-                        Entry<Property, Parameter> entry = entryIt.next();
-                        args.putIfAbsent(entry.getKey(), entry.getValue()); // reject Parameters for existing predicates
-                    }
-                    
-                    addSuperParameters(superTemplate, args);  // recursion to super class
+                    closure.put(superTemplate.getURI(), superTemplate);
+                    addSuperTemplates(superTemplate, closure);  // recursion to super class
                 }
             }
         }
@@ -210,24 +270,55 @@ public class TemplateImpl extends OntClassImpl implements Template
         {
             superIt.close();
         }
-
-        return args;
     }
     
+    /**
+     * Returns parameters of this template, including inherited ones, mapped by name (local name of the predicate).
+     * The map is computed once and cached.
+     * 
+     * @return unmodifiable name/parameter map
+     */
     @Override
     public Map<String, Parameter> getParameterMap()
     {
-        Map<String,Parameter> map = new HashMap<>();
-
-        for (Parameter param : getParameters().values())
+        Map<String, Parameter> map = parameterMap;
+        if (map == null)
         {
-            Property property = param.getPredicate();
-            if (property != null) map.put(property.getLocalName(), param);
+            map = new HashMap<>();
+            for (Parameter param : getParameters().values())
+            {
+                Property property = param.getPredicate();
+                if (property != null) map.put(property.getLocalName(), param);
+            }
+            map = Collections.unmodifiableMap(map);
+            parameterMap = map;
         }
 
         return map;
     }
     
+    /**
+     * Returns default values of the parameters that have one, including inherited parameters.
+     * The map is computed once and cached.
+     * 
+     * @return unmodifiable predicate/default value map
+     */
+    @Override
+    public Map<Property, RDFNode> getDefaultValues()
+    {
+        Map<Property, RDFNode> values = defaultValues;
+        if (values == null)
+        {
+            values = new HashMap<>();
+            for (Parameter param : getParameters().values())
+                if (param.getDefaultValue() != null) values.put(param.getPredicate(), param.getDefaultValue());
+            values = Collections.unmodifiableMap(values);
+            defaultValues = values;
+        }
+        
+        return values;
+    }
+    
     @Override
     public List<Locale> getLanguages()
     {
@@ -294,6 +385,35 @@ public class TemplateImpl extends OntClassImpl implements Template
 	return null;
     }
     
+    /**
+     * Returns rendered <code>Link</code> header values: the template as <code>rdf:type</code>, the sitemap ontology
+     * and the base URI. The values are rendered once per ontology and base URI and cached.
+     * 
+     * @param ontologyURI sitemap ontology URI
+     * @param base application base URI
+     * @return unmodifiable list of header values
+     */
+    @Override
+    public List<String> getLinks(String ontologyURI, URI base)
+    {
+	if (ontologyURI == null) throw new IllegalArgumentException("Ontology URI cannot be null");
+	if (base == null) throw new IllegalArgumentException("Base URI cannot be null");
+        
+        List<String> key = Arrays.asList(ontologyURI, base.toString());
+        List<String> values = links.get(key);
+        if (values == null)
+        {
+            values = Collections.unmodifiableList(Arrays.asList(
+                new Link(URI.create(getURI()), RDF.type.getLocalName(), null).toString(),
+                new Link(URI.create(ontologyURI), LDT.ontology.getURI(), null).toString(),
+                new Link(base, LDT.baseUri.getURI(), null).toString()));
+            List<String> cached = links.putIfAbsent(key, values);
+            if (cached != null) values = cached;
+        }
+        
+        return values;
+    }
+    
     protected String getStringValue(Property property)
     {
 	if (property == null) throw new IllegalArgumentException("Property cannot be null");
@@ -313,24 +433,57 @@ public class TemplateImpl extends OntClassImpl implements Template
     @Override
     public QueryBuilder getQueryBuilder(URI base, Model commandModel)
     {
-        Resource queryOrTemplateCall = getQuery();
-        if (queryOrTemplateCall == null)
+	if (commandModel == null) throw new IllegalArgumentException("Model cannot be null");
+
+        return QueryBuilder.fromQuery(getQuery(base), commandModel);
+    }
+    
+    public QueryBuilder getQueryBuilder(Resource queryOrTemplateCall, URI base, Model commandModel)
+    {
+	if (commandModel == null) throw new IllegalArgumentException("Model cannot be null");
+
+        return QueryBuilder.fromQuery(getQuery(queryOrTemplateCall, base), commandModel);
+    }
+
+    /**
+     * Returns the parsed query of this template.
+     * The query is parsed once per base URI and cached. A shallow copy is returned, which shares the query pattern
+     * with the cached query, therefore the pattern must not be modified in place (element transforms can be used instead).
+     * 
+     * @param base base URI of the query
+     * @return query copy
+     */
+    @Override
+    public Query getQuery(URI base)
+    {
+	if (base == null) throw new IllegalArgumentException("Base URI cannot be null");
+
+        Query query = queries.get(base);
+        if (query == null)
         {
-            if (log.isErrorEnabled()) log.error("Query not defined for template '{}' (ldt:query missing)", getURI());
-            throw new OntologyException("Query not defined for template '" + getURI() +"'");
+            Resource queryOrTemplateCall = getQuery();
+            if (queryOrTemplateCall == null)
+            {
+                if (log.isErrorEnabled()) log.error("Query not defined for template '{}' (ldt:query missing)", getURI());
+                throw new OntologyException("Query not defined for template '" + getURI() +"'");
+            }
+
+            query = getQuery(queryOrTemplateCall, base);
+            if (log.isDebugEnabled()) log.debug("Caching query of Template '{}' for base URI '{}'", getURI(), base);
+            Query cached = queries.putIfAbsent(base, query);
+            if (cached != null) query = cached;
         }
         
-        return getQueryBuilder(queryOrTemplateCall, base, commandModel);
+        return QueryTransformOps.shallowCopy(query);
     }
     
-    public QueryBuilder getQueryBuilder(Resource queryOrTemplateCall, URI base, Model commandModel)
+    public Query getQuery(Resource queryOrTemplateCall, URI base)
     {
 	if (queryOrTemplateCall == null) throw new IllegalArgumentException("Query Resource cannot be null");
-	if (commandModel == null) throw new IllegalArgumentException("Model cannot be null");
         
         org.spinrdf.model.TemplateCall spinTemplateCall = SPINFactory.asTemplateCall(queryOrTemplateCall);
         if (spinTemplateCall != null)
-            return QueryBuilder.fromQuery(getParameterizedSparqlString(spinTemplateCall, base).asQuery(), commandModel);
+            return getParameterizedSparqlString(spinTemplateCall, base).asQuery();
         else
         {
             org.spinrdf.model.Query query = SPINFactory.asQuery(queryOrTemplateCall);
@@ -340,7 +493,7 @@ public class TemplateImpl extends OntClassImpl implements Template
                 throw new OntologyException("Class '" + getURI() + "' ldt:query value '" + queryOrTemplateCall + "' not a SPIN Query or TemplateCall");
             }
             
-            return QueryBuilder.fromQuery(getParameterizedSparqlString(query, base).asQuery(), commandModel);
+            return getParameterizedSparqlString(query, base).asQuery();
         }
     }
 
@@ -439,26 +592,16 @@ public class TemplateImpl extends OntClassImpl implements Template
     {
 	if (superTemplate == null) throw new IllegalArgumentException("Template cannot be null");
         
-        ExtendedIterator<OntClass> it = listSuperClasses(false);
-        try
-        {
-            while (it.hasNext())
-            {
-                OntClass nextClass = it.next();
-                if (nextClass.canAs(Template.class))
-                {
-                    Template nextTemplate = nextClass.as(Template.class);
-                    if (nextTemplate.equals(superTemplate) || nextTemplate.hasSuperTemplate(superTemplate))
-                        return true;
-                }
-            }
-        }
-        finally
-        {
-            it.close();
-        }
+        return hasSuperTemplate(superTemplate.getURI());
+    }
+
+    @Override
+    public final boolean hasSuperTemplate(String superTemplateURI)
+    {
+	if (superTemplateURI == null) throw new IllegalArgumentException("Template URI cannot be null");
         
-        return false;
+        getSuperTemplates(); // computes the closure
+        return superTemplateURIs.contains(superTemplateURI);
     }
 
 }
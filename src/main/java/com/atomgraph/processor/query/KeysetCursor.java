@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.processor.query;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.riot.out.NodeFmtLib;
+import org.apache.jena.riot.tokens.Token;
+import org.apache.jena.riot.tokens.Tokenizer;
+import org.apache.jena.riot.tokens.TokenizerFactory;
+
+/**
+ * Keyset pagination cursor: the <code>ORDER BY</code> value of the last row in a page, and the key of that row,
+ * which breaks ties between rows with equal values.
+ * Serialized as one or two RDF terms in N-Triples syntax, separated by a space.
+ *
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ * @see com.atomgraph.processor.query.SubSelectTransform
+ */
+public class KeysetCursor
+{
+
+    private final Node value, key;
+
+    /**
+     * Constructs cursor.
+     * 
+     * @param value last <code>ORDER BY</code> value
+     * @param key last row key, or null if the value is unique
+     */
+    public KeysetCursor(Node value, Node key)
+    {
+        if (value == null) throw new IllegalArgumentException("Cursor value Node cannot be null");
+        this.value = value;
+        this.key = key;
+    }
+
+    /**
+     * Parses cursor string. Values which are not RDF terms are treated as plain string literals.
+     * 
+     * @param cursor cursor string
+     * @return cursor
+     */
+    public static KeysetCursor parse(String cursor)
+    {
+        if (cursor == null) throw new IllegalArgumentException("Cursor String cannot be null");
+
+        try
+        {
+            Tokenizer tokenizer = TokenizerFactory.makeTokenizerString(cursor);
+            try
+            {
+                Node value = next(tokenizer);
+                Node key = tokenizer.hasNext() ? next(tokenizer) : null;
+                if (value != null && !tokenizer.hasNext()) return new KeysetCursor(value, key);
+            }
+            finally
+            {
+                tokenizer.close();
+            }
+        }
+        catch (RuntimeException ex)
+        {
+            // not an RDF term
+        }
+        
+        return new KeysetCursor(NodeFactory.createLiteral(cursor), null);
+    }
+    
+    private static Node next(Tokenizer tokenizer)
+    {
+        if (!tokenizer.hasNext()) return null;
+        
+        Token token = tokenizer.next();
+        if (!token.isNode()) return null;
+        
+        Node node = token.asNode();
+        if (node == null || node.isVariable()) return null;
+        
+        return node;
+    }
+    
+    public Node getValue()
+    {
+        return value;
+    }
+
+    public Node getKey()
+    {
+        return key;
+    }
+
+    @Override
+    public String toString()
+    {
+        if (getKey() == null) return NodeFmtLib.str(getValue());
+        
+        return NodeFmtLib.str(getValue()) + " " + NodeFmtLib.str(getKey());
+    }
+    
+}
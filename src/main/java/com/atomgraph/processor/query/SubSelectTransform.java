@@ -0,0 +1,281 @@
+/*
+ * Copyright 2016 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.processor.query;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.Query;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.expr.E_Equals;
+import org.apache.jena.sparql.expr.E_GreaterThan;
+import org.apache.jena.sparql.expr.E_LessThan;
+import org.apache.jena.sparql.expr.E_LogicalAnd;
+import org.apache.jena.sparql.expr.E_LogicalOr;
+import org.apache.jena.sparql.expr.E_Str;
+import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.ExprVar;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.syntax.Element;
+import org.apache.jena.sparql.syntax.ElementFilter;
+import org.apache.jena.sparql.syntax.ElementGroup;
+import org.apache.jena.sparql.syntax.ElementSubQuery;
+import org.apache.jena.sparql.syntax.ElementVisitorBase;
+import org.apache.jena.sparql.syntax.ElementWalker;
+import org.apache.jena.sparql.syntax.PatternVars;
+import org.apache.jena.sparql.syntax.syntaxtransform.ElementTransformCopyBase;
+import org.apache.jena.sparql.syntax.syntaxtransform.ElementTransformer;
+import org.apache.jena.sparql.syntax.syntaxtransform.QueryTransformOps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ARQ syntax transform that sets solution modifiers (<code>OFFSET</code>, <code>LIMIT</code>, <code>ORDER BY</code>)
+ * on a sub-<code>SELECT</code> of a query.
+ * Keyset pagination is supported by filtering the <code>ORDER BY</code> variable by the last seen value,
+ * with the row key as a tie-breaker.
+ * The transformed query is a copy, the original query (and its pattern) is not modified.
+ *
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ */
+public class SubSelectTransform extends ElementTransformCopyBase
+{
+
+    private static final Logger log = LoggerFactory.getLogger(SubSelectTransform.class);
+
+    private final ElementSubQuery subSelect;
+    private Long offset, limit;
+    private String orderBy;
+    private boolean desc;
+    private KeysetCursor after;
+
+    public SubSelectTransform(ElementSubQuery subSelect)
+    {
+        if (subSelect == null) throw new IllegalArgumentException("ElementSubQuery cannot be null");
+        this.subSelect = subSelect;
+    }
+
+    /**
+     * Returns the first sub-<code>SELECT</code> in the query pattern (not including nested sub-queries).
+     *
+     * @param query query
+     * @return sub-query element or null, if none
+     */
+    public static ElementSubQuery getSubSelect(Query query)
+    {
+        if (query == null) throw new IllegalArgumentException("Query cannot be null");
+        if (query.getQueryPattern() == null) return null;
+
+        final ElementSubQuery[] subSelects = new ElementSubQuery[1];
+        ElementWalker.walk(query.getQueryPattern(), new ElementVisitorBase()
+        {
+
+            @Override
+            public void visit(ElementSubQuery el)
+            {
+                if (subSelects[0] == null && el.getQuery().isSelectType()) subSelects[0] = el;
+            }
+
+        });
+
+        return subSelects[0];
+    }
+
+    public SubSelectTransform offset(Long offset)
+    {
+        this.offset = offset;
+        return this;
+    }
+
+    public SubSelectTransform limit(Long limit)
+    {
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Replaces any existing <code>ORDER BY</code> condition with the given variable.
+     *
+     * @param varName variable name
+     * @param desc true if descending
+     * @return this transform
+     */
+    public SubSelectTransform orderBy(String varName, boolean desc)
+    {
+        this.orderBy = varName;
+        this.desc = desc;
+        return this;
+    }
+
+    /**
+     * Sets keyset cursor: only solutions which are ordered after the given value are selected.
+     * Requires <code>ORDER BY</code> variable to be set.
+     * 
+     * @param after last seen value of the <code>ORDER BY</code> variable
+     * @return this transform
+     */
+    public SubSelectTransform after(Node after)
+    {
+        return after(new KeysetCursor(after, null));
+    }
+
+    /**
+     * Sets keyset cursor: only solutions which are ordered after the given value and row key are selected.
+     * The row key is the first projected variable of the sub-<code>SELECT</code>. It is added to <code>ORDER BY</code>
+     * as a secondary condition, so that rows with equal values are not skipped at page boundaries.
+     * Requires <code>ORDER BY</code> variable to be set.
+     * 
+     * @param cursor last seen value and row key
+     * @return this transform
+     */
+    public SubSelectTransform after(KeysetCursor cursor)
+    {
+        this.after = cursor;
+        return this;
+    }
+
+    /**
+     * Returns the row key variable of the sub-query: its first projected variable.
+     * 
+     * @param subQuery sub-<code>SELECT</code> query
+     * @return key variable or null, if there is none
+     */
+    public static Var getKeyVar(Query subQuery)
+    {
+        if (subQuery == null) throw new IllegalArgumentException("Query cannot be null");
+        if (subQuery.isQueryResultStar() || subQuery.getProjectVars().isEmpty()) return null;
+        
+        return subQuery.getProjectVars().get(0);
+    }
+    
+    /**
+     * Applies this transform to a copy of the query.
+     *
+     * @param query query
+     * @return transformed query
+     */
+    public Query apply(Query query)
+    {
+        if (query == null) throw new IllegalArgumentException("Query cannot be null");
+
+        Query copy = QueryTransformOps.shallowCopy(query);
+        copy.setQueryPattern(ElementTransformer.transform(query.getQueryPattern(), this));
+        return copy;
+    }
+
+    @Override
+    public Element transform(ElementSubQuery el, Query query)
+    {
+        if (el != getSubSelect()) return super.transform(el, query);
+
+        Query subQuery = QueryTransformOps.shallowCopy(query);
+        if (offset != null)
+        {
+            if (log.isDebugEnabled()) log.debug("Setting OFFSET on sub-SELECT: {}", offset);
+            subQuery.setOffset(offset);
+        }
+        if (limit != null)
+        {
+            if (log.isDebugEnabled()) log.debug("Setting LIMIT on sub-SELECT: {}", limit);
+            subQuery.setLimit(limit);
+        }
+        if (orderBy != null)
+        {
+            Var var = Var.alloc(orderBy);
+            if (PatternVars.vars(subQuery.getQueryPattern()).contains(var))
+            {
+                if (log.isDebugEnabled()) log.debug("Setting ORDER BY on sub-SELECT: ?{} DESC: {}", orderBy, desc);
+                if (subQuery.getOrderBy() != null) subQuery.getOrderBy().clear(); // any existing ORDER BY condition is removed first
+                subQuery.addOrderBy(var, desc ? Query.ORDER_DESCENDING : Query.ORDER_ASCENDING);
+                
+                Var keyVar = getKeyVar(subQuery);
+                if (keyVar != null && keyVar.equals(var)) keyVar = null; // the ORDER BY value is the key
+                if (keyVar != null) subQuery.addOrderBy(keyVar, desc ? Query.ORDER_DESCENDING : Query.ORDER_ASCENDING); // tie-breaker
+                
+                if (after != null)
+                {
+                    if (after.getValue().isBlank())
+                    {
+                        if (log.isWarnEnabled()) log.warn("Keyset cursor cannot be a blank node, FILTER not set");
+                    }
+                    else
+                    {
+                        if (log.isDebugEnabled()) log.debug("Setting keyset FILTER on sub-SELECT: ?{} after {}", orderBy, after);
+                        Expr filter = getAfter(var, after.getValue());
+                        if (keyVar != null && after.getKey() != null && !after.getKey().isBlank())
+                            filter = new E_LogicalOr(filter,
+                                new E_LogicalAnd(new E_Equals(getTerm(var, after.getValue()), getTerm(after.getValue())),
+                                    getAfter(keyVar, after.getKey())));
+
+                        ElementGroup group = new ElementGroup();
+                        group.addElement(subQuery.getQueryPattern());
+                        group.addElementFilter(new ElementFilter(filter));
+                        subQuery.setQueryPattern(group);
+                    }
+                }
+            }
+            else
+                if (log.isWarnEnabled()) log.warn("Variable ?{} not used in the WHERE pattern of sub-SELECT, ORDER BY not set", orderBy);
+        }
+        else
+            if (after != null && log.isWarnEnabled()) log.warn("Keyset cursor requires ORDER BY, FILTER not set");
+
+        return new ElementSubQuery(subQuery);
+    }
+
+    /**
+     * Returns expression which is true for values ordered after the cursor value.
+     * 
+     * @param var variable
+     * @param value cursor value
+     * @return comparison expression
+     */
+    protected Expr getAfter(Var var, Node value)
+    {
+        if (desc) return new E_LessThan(getTerm(var, value), getTerm(value));
+        return new E_GreaterThan(getTerm(var, value), getTerm(value));
+    }
+    
+    /**
+     * Returns comparable form of the variable. IRIs cannot be compared using <code>&lt;</code> and
+     * <code>&gt;</code>, so their string forms are compared instead, which is how <code>ORDER BY</code> orders them.
+     * 
+     * @param var variable
+     * @param value cursor value
+     * @return expression
+     */
+    protected Expr getTerm(Var var, Node value)
+    {
+        if (value.isURI()) return new E_Str(new ExprVar(var));
+        return new ExprVar(var);
+    }
+    
+    /**
+     * Returns comparable form of the cursor value.
+     * 
+     * @param value cursor value
+     * @return expression
+     */
+    protected Expr getTerm(Node value)
+    {
+        if (value.isURI()) return NodeValue.makeString(value.getURI());
+        return NodeValue.makeNode(value);
+    }
+    
+    public ElementSubQuery getSubSelect()
+    {
+        return subSelect;
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2016 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.processor.update;
+
+import java.net.URI;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.modify.request.QuadDataAcc;
+import org.apache.jena.sparql.modify.request.UpdateDataInsert;
+import org.apache.jena.update.UpdateRequest;
+import org.apache.jena.util.iterator.ExtendedIterator;
+
+/**
+ * Builds SPARQL <code>INSERT DATA</code> request directly from RDF triples or quads.
+ * Unlike {@link InsertDataBuilder}, it does not use the SPIN RDF representation: data is accumulated as ARQ quads in
+ * a single pass, which keeps memory use proportional to the payload size.
+ * Can be used as a RIOT parser sink.
+ *
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ * @see <a href="https://www.w3.org/TR/sparql11-update/#insertData">3.1.1 INSERT DATA</a>
+ */
+public class InsertDataStream implements StreamRDF
+{
+
+    private final Node graph;
+    private final QuadDataAcc quads = new QuadDataAcc();
+    private long count = 0;
+
+    /**
+     * Constructs stream which inserts triples into the given named graph.
+     *
+     * @param graph graph name or null, if the default graph
+     */
+    public InsertDataStream(Node graph)
+    {
+        this.graph = graph;
+        if (graph != null) quads.setGraph(graph);
+    }
+
+    public InsertDataStream()
+    {
+        this((Node)null);
+    }
+
+    public static UpdateRequest fromData(Model model)
+    {
+        return fromData((URI)null, model);
+    }
+
+    public static UpdateRequest fromData(URI graphURI, Model model)
+    {
+        if (model == null) throw new IllegalArgumentException("Model cannot be null");
+
+        InsertDataStream stream = new InsertDataStream(graphURI != null ? NodeFactory.createURI(graphURI.toString()) : null);
+        stream.add(model.getGraph());
+        return stream.getUpdateRequest();
+    }
+
+    public void add(Graph graph)
+    {
+        if (graph == null) throw new IllegalArgumentException("Graph cannot be null");
+
+        ExtendedIterator<Triple> it = graph.find(Node.ANY, Node.ANY, Node.ANY);
+        try
+        {
+            while (it.hasNext()) triple(it.next());
+        }
+        finally
+        {
+            it.close();
+        }
+    }
+
+    @Override
+    public void start()
+    {
+    }
+
+    @Override
+    public void triple(Triple triple)
+    {
+        quads.addTriple(triple);
+        count++;
+    }
+
+    /**
+     * Adds quad. Quads in the default graph are inserted into the graph of this stream.
+     *
+     * @param quad quad
+     */
+    @Override
+    public void quad(Quad quad)
+    {
+        if (quad.isDefaultGraph()) triple(quad.asTriple());
+        else
+        {
+            quads.addQuad(quad);
+            count++;
+        }
+    }
+
+    @Override
+    public void base(String base)
+    {
+    }
+
+    @Override
+    public void prefix(String prefix, String iri)
+    {
+    }
+
+    @Override
+    public void finish()
+    {
+    }
+
+    public UpdateRequest getUpdateRequest()
+    {
+        return new UpdateRequest(new UpdateDataInsert(quads));
+    }
+
+    public Node getGraph()
+    {
+        return graph;
+    }
+
+    /**
+     * Returns number of triples and quads added so far.
+     *
+     * @return count
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+}
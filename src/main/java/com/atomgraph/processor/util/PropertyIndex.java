@@ -0,0 +1,177 @@
+/*
+ * Copyright 2014 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.processor.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.util.iterator.ExtendedIterator;
+
+/**
+ * Index of property values by subject and property local name, built in one pass over a graph.
+ * Resolves URI template variable paths such as <code>title</code> or <code>maker.name</code>, where all but the last
+ * name step through blank node values, and the last one selects literal values.
+ * If a path has multiple literal values, the one in the most preferred language is picked.
+ * 
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ * @see com.atomgraph.processor.util.Skolemizer
+ */
+public class PropertyIndex
+{
+
+    private final Map<Node, Map<String, List<Node>>> literals = new HashMap<>(), resources = new HashMap<>();
+    private final List<String> languages;
+
+    public PropertyIndex(Graph graph)
+    {
+        this(graph, Collections.<String>emptyList());
+    }
+
+    /**
+     * Builds index.
+     * 
+     * @param graph RDF graph
+     * @param languages preferred language tags, most preferred first
+     */
+    public PropertyIndex(Graph graph, List<String> languages)
+    {
+        if (graph == null) throw new IllegalArgumentException("Graph cannot be null");
+        if (languages == null) throw new IllegalArgumentException("Language List cannot be null");
+
+        this.languages = languages;
+
+        ExtendedIterator<Triple> it = graph.find(Node.ANY, Node.ANY, Node.ANY);
+        try
+        {
+            while (it.hasNext())
+            {
+                Triple triple = it.next();
+                if (triple.getObject().isLiteral()) add(literals, triple);
+                else if (triple.getObject().isBlank()) add(resources, triple);
+            }
+        }
+        finally
+        {
+            it.close();
+        }
+    }
+
+    private static void add(Map<Node, Map<String, List<Node>>> index, Triple triple)
+    {
+        Map<String, List<Node>> properties = index.get(triple.getSubject());
+        if (properties == null)
+        {
+            properties = new HashMap<>();
+            index.put(triple.getSubject(), properties);
+        }
+
+        String localName = triple.getPredicate().getLocalName();
+        List<Node> values = properties.get(localName);
+        if (values == null)
+        {
+            values = new ArrayList<>(1);
+            properties.put(localName, values);
+        }
+        values.add(triple.getObject());
+    }
+
+    private static List<Node> get(Map<Node, Map<String, List<Node>>> index, Node subject, String localName)
+    {
+        Map<String, List<Node>> properties = index.get(subject);
+        if (properties == null) return Collections.emptyList();
+
+        List<Node> values = properties.get(localName);
+        if (values == null) return Collections.emptyList();
+
+        return values;
+    }
+
+    /**
+     * Returns all literal values of the name path. Multi-valued intermediate steps are followed in every branch.
+     * 
+     * @param subject subject node
+     * @param namePath dot-separated property local names
+     * @return list of literal nodes
+     */
+    public List<Node> getLiterals(Node subject, String namePath)
+    {
+        if (subject == null) throw new IllegalArgumentException("Subject Node cannot be null");
+        if (namePath == null) throw new IllegalArgumentException("Name path String cannot be null");
+
+        int dot = namePath.indexOf(".");
+        if (dot == -1) return get(literals, subject, namePath);
+
+        String name = namePath.substring(0, dot);
+        String nameSubPath = namePath.substring(dot + 1);
+        List<Node> values = new ArrayList<>();
+        for (Node resource : get(resources, subject, name))
+            values.addAll(getLiterals(resource, nameSubPath));
+        return values;
+    }
+
+    /**
+     * Returns the literal value of the name path in the most preferred language.
+     * Literals in preferred languages come first, then literals without language, then any other.
+     * 
+     * @param subject subject node
+     * @param namePath dot-separated property local names
+     * @return literal node or null, if there is no value
+     */
+    public Node getLiteral(Node subject, String namePath)
+    {
+        List<Node> values = getLiterals(subject, namePath);
+        if (values.isEmpty()) return null;
+        if (values.size() == 1) return values.get(0);
+
+        Node best = null;
+        int bestRank = Integer.MAX_VALUE;
+        for (Node value : values)
+        {
+            int rank = getRank(value);
+            if (rank < bestRank)
+            {
+                best = value;
+                bestRank = rank;
+            }
+        }
+        return best;
+    }
+
+    protected int getRank(Node literal)
+    {
+        String lang = literal.getLiteralLanguage();
+        if (lang == null || lang.isEmpty()) return getLanguages().size();
+
+        for (int i = 0; i < getLanguages().size(); i++)
+        {
+            String preferred = getLanguages().get(i);
+            if (lang.equalsIgnoreCase(preferred) || lang.toLowerCase().startsWith(preferred.toLowerCase() + "-")) return i;
+        }
+
+        return getLanguages().size() + 1;
+    }
+
+    public List<String> getLanguages()
+    {
+        return languages;
+    }
+
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2014 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.processor.util;
+
+import com.atomgraph.processor.exception.OntologyException;
+import com.atomgraph.processor.vocabulary.LDT;
+import com.atomgraph.processor.vocabulary.SIOC;
+import com.sun.jersey.api.uri.UriTemplateParser;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.jena.ontology.HasValueRestriction;
+import org.apache.jena.ontology.OntClass;
+import org.apache.jena.ontology.OntResource;
+import org.apache.jena.ontology.Ontology;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.ResIterator;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.vocabulary.RDF;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Skolemization plan compiled from the sitemap ontology.
+ * Maps each class with <code>ldt:segment</code> to its precedence (import level of its defining ontology),
+ * URI templates and their variable names, and the parent container URI (<code>sioc:has_parent</code> or
+ * <code>sioc:has_container</code> value restriction), so that a blank node can be matched by a lookup of its types.
+ * 
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ * @see com.atomgraph.processor.util.Skolemizer
+ */
+public class SkolemizationPlan
+{
+
+    private static final Logger log = LoggerFactory.getLogger(SkolemizationPlan.class);
+
+    private final Ontology ontology;
+    private final Map<Resource, ClassTemplate> templates;
+
+    public SkolemizationPlan(Ontology ontology)
+    {
+        if (ontology == null) throw new IllegalArgumentException("Ontology cannot be null");
+
+        this.ontology = ontology;
+        this.templates = Collections.unmodifiableMap(compile(ontology));
+        if (log.isDebugEnabled()) log.debug("Compiled skolemization plan for classes: {}", templates.keySet());
+    }
+
+    public static class ClassTemplate
+    {
+        private final OntClass ontClass;
+        private final int level;
+        private final String segment, path, fragment;
+        private final List<String> names;
+        private final String parentURI, error;
+
+        public ClassTemplate(OntClass ontClass, int level)
+        {
+            if (ontClass == null) throw new IllegalArgumentException("OntClass cannot be null");
+
+            this.ontClass = ontClass;
+            this.level = level;
+            this.segment = getStringValue(ontClass, LDT.segment);
+            this.path = getStringValue(ontClass, LDT.path);
+            this.fragment = getStringValue(ontClass, LDT.fragment);
+
+            // skolemization template builds with absolute path builder (e.g. "{slug}"), otherwise URI match template
+            String template = segment != null ? segment : path;
+            if (template != null) this.names = Collections.unmodifiableList(new UriTemplateParser(template).getNames());
+            else this.names = Collections.emptyList();
+
+            String parent = null, invalid = null;
+            ExtendedIterator<OntClass> superClassIt = ontClass.listSuperClasses();
+            try
+            {
+                while (superClassIt.hasNext() && parent == null && invalid == null)
+                {
+                    OntClass superClass = superClassIt.next();
+                    if (superClass.canAs(HasValueRestriction.class))
+                    {
+                        HasValueRestriction hvr = superClass.as(HasValueRestriction.class);
+                        if (hvr.getOnProperty().equals(SIOC.HAS_PARENT) || hvr.getOnProperty().equals(SIOC.HAS_CONTAINER))
+                        {
+                            // reported when the class is used, not when the plan is compiled
+                            if (!hvr.getHasValue().isURIResource())
+                                invalid = "Value restriction on class '" + ontClass + "' for property '" + hvr.getOnProperty() + "' is not a URI resource";
+                            else parent = hvr.getHasValue().asResource().getURI();
+                        }
+                    }
+                }
+            }
+            finally
+            {
+                superClassIt.close();
+            }
+            this.parentURI = parent;
+            this.error = invalid;
+        }
+
+        public OntClass getOntClass()
+        {
+            return ontClass;
+        }
+
+        public int getLevel()
+        {
+            return level;
+        }
+
+        public String getSegment()
+        {
+            return segment;
+        }
+
+        public String getPath()
+        {
+            return path;
+        }
+
+        public String getFragment()
+        {
+            return fragment;
+        }
+
+        /**
+         * Returns variable names of the URI template used for skolemization.
+         * 
+         * @return list of names
+         */
+        public List<String> getNames()
+        {
+            return names;
+        }
+
+        /**
+         * Returns URI of the parent container, if specified by a value restriction.
+         * 
+         * @return parent URI or null
+         */
+        public String getParentURI()
+        {
+            if (error != null)
+            {
+                if (log.isErrorEnabled()) log.error(error);
+                throw new OntologyException(error);
+            }
+
+            return parentURI;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "[<" + getOntClass().getURI() + ">, " + getLevel() + "]";
+        }
+
+    }
+
+    /**
+     * Compiles class templates. Import levels of ontologies are computed breadth-first, a class gets the level of
+     * the ontology it is defined by.
+     * 
+     * @param ontology sitemap ontology
+     * @return map of classes to templates
+     */
+    protected final Map<Resource, ClassTemplate> compile(Ontology ontology)
+    {
+        Map<Resource, Integer> levels = new HashMap<>();
+        Deque<Ontology> queue = new ArrayDeque<>();
+        levels.put(ontology, 0);
+        queue.add(ontology);
+        while (!queue.isEmpty())
+        {
+            Ontology current = queue.poll();
+            ExtendedIterator<OntResource> imports = current.listImports();
+            try
+            {
+                while (imports.hasNext())
+                {
+                    OntResource importRes = imports.next();
+                    if (importRes.canAs(Ontology.class) && !levels.containsKey(importRes))
+                    {
+                        levels.put(importRes, levels.get(current) + 1);
+                        queue.add(importRes.asOntology());
+                    }
+                }
+            }
+            finally
+            {
+                imports.close();
+            }
+        }
+
+        Map<Resource, ClassTemplate> classTemplates = new HashMap<>();
+        ResIterator it = ontology.getOntModel().listResourcesWithProperty(LDT.segment);
+        try
+        {
+            while (it.hasNext())
+            {
+                Resource ontClassRes = it.next();
+                OntClass ontClass = ontology.getOntModel().getOntResource(ontClassRes).asClass();
+                // only match templates defined in the imported ontologies
+                if (ontClass.getIsDefinedBy() != null && levels.containsKey(ontClass.getIsDefinedBy()))
+                {
+                    ClassTemplate template = new ClassTemplate(ontClass, levels.get(ontClass.getIsDefinedBy()));
+                    if (log.isTraceEnabled()) log.trace("Compiled skolemization template {}", template);
+                    classTemplates.put(ontClass, template);
+                }
+            }
+        }
+        finally
+        {
+            it.close();
+        }
+
+        return classTemplates;
+    }
+
+    /**
+     * Matches resource by its types. Classes from ontologies closer to the sitemap ontology take precedence.
+     * 
+     * @param resource resource
+     * @return class template or null, if no type matched
+     */
+    public ClassTemplate match(Resource resource)
+    {
+        if (resource == null) throw new IllegalArgumentException("Resource cannot be null");
+
+        ClassTemplate match = null;
+        StmtIterator it = resource.listProperties(RDF.type);
+        try
+        {
+            while (it.hasNext())
+            {
+                Statement stmt = it.next();
+                if (stmt.getObject().isURIResource())
+                {
+                    ClassTemplate template = getTemplates().get(stmt.getResource());
+                    if (template != null && (match == null || template.getLevel() < match.getLevel()))
+                        match = template;
+                }
+            }
+        }
+        finally
+        {
+            it.close();
+        }
+
+        if (match != null && log.isTraceEnabled()) log.trace("Resource {} matched OntClass {}", resource, match.getOntClass());
+        return match;
+    }
+
+    public static String getStringValue(OntClass ontClass, Property property)
+    {
+        if (ontClass == null) throw new IllegalArgumentException("OntClass cannot be null");
+        if (property == null) throw new IllegalArgumentException("Property cannot be null");
+
+        RDFNode value = ontClass.getPropertyValue(property);
+        if (value != null && value.isLiteral()) return value.asLiteral().getString();
+
+        return null;
+    }
+
+    public Ontology getOntology()
+    {
+        return ontology;
+    }
+
+    public Map<Resource, ClassTemplate> getTemplates()
+    {
+        return templates;
+    }
+
+}
@@ -17,22 +17,28 @@
 package com.atomgraph.processor.util;
 
 import com.atomgraph.processor.exception.OntologyException;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.ontology.OntResource;
 import org.apache.jena.ontology.Ontology;
 import org.apache.jena.rdf.model.Literal;
 import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Property;
 import org.apache.jena.rdf.model.ResIterator;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.Statement;
 import org.apache.jena.rdf.model.StmtIterator;
-import org.apache.jena.util.ResourceUtils;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFLib;
 import org.apache.jena.util.iterator.ExtendedIterator;
 import org.apache.jena.vocabulary.RDF;
 import com.sun.jersey.api.uri.UriTemplateParser;
 import java.net.URI;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -49,6 +55,7 @@ import org.slf4j.LoggerFactory;
 /**
  * Builder class that can build URIs from templates for RDF resources as well as models.
  * Needs to be initialized with sitemap ontology, ontology class matching request URI, and request URI information.
+ * Blank nodes are matched to ontology classes using a {@link SkolemizationPlan}, which can be compiled once per sitemap.
  * 
  * @author Martynas Jusevičius <martynas@atomgraph.com>
  */
@@ -56,8 +63,9 @@ public class Skolemizer
 {
     private static final Logger log = LoggerFactory.getLogger(Skolemizer.class);
 
-    private final Ontology ontology;
+    private final SkolemizationPlan plan;
     private final UriBuilder baseUriBuilder, absolutePathBuilder;
+    private final List<String> languages;
     
     public class ClassPrecedence implements Comparable
     {
@@ -106,29 +114,79 @@ public class Skolemizer
 
     public Skolemizer(Ontology ontology, UriBuilder baseUriBuilder, UriBuilder absolutePathBuilder)
     {
-	if (ontology == null) throw new IllegalArgumentException("Ontology cannot be null");
+        this(new SkolemizationPlan(ontology), baseUriBuilder, absolutePathBuilder);
+    }
+    
+    /**
+     * Constructs skolemizer from a precompiled plan, which can be shared between requests.
+     * 
+     * @param plan skolemization plan
+     * @param baseUriBuilder base URI builder
+     * @param absolutePathBuilder absolute path builder
+     */
+    public Skolemizer(SkolemizationPlan plan, UriBuilder baseUriBuilder, UriBuilder absolutePathBuilder)
+    {
+        this(plan, baseUriBuilder, absolutePathBuilder, Collections.<String>emptyList());
+    }
+    
+    /**
+     * Constructs skolemizer which picks URI template values in the preferred languages.
+     * 
+     * @param plan skolemization plan
+     * @param baseUriBuilder base URI builder
+     * @param absolutePathBuilder absolute path builder
+     * @param languages preferred language tags, most preferred first
+     * @see PropertyIndex
+     */
+    public Skolemizer(SkolemizationPlan plan, UriBuilder baseUriBuilder, UriBuilder absolutePathBuilder, List<String> languages)
+    {
+	if (plan == null) throw new IllegalArgumentException("SkolemizationPlan cannot be null");
 	if (baseUriBuilder == null) throw new IllegalArgumentException("UriBuilder cannot be null");
 	if (absolutePathBuilder == null) throw new IllegalArgumentException("UriBuilder cannot be null");
-        this.ontology = ontology;        
+	if (languages == null) throw new IllegalArgumentException("Language List cannot be null");
+        this.plan = plan;        
         this.baseUriBuilder = baseUriBuilder;
         this.absolutePathBuilder = absolutePathBuilder;    
+        this.languages = languages;
     }
 
+    /**
+     * Skolemizes blank nodes in the model.
+     * 
+     * @param model RDF model
+     * @return new model with skolemized blank nodes
+     */
     public Model build(Model model)
+    {
+        return build(model, new HashMap<Node, Node>());
+    }
+    
+    /**
+     * Skolemizes blank nodes in the model using (and extending) the given blank node to URI map.
+     * Blank node URIs are built first, then the triples are rewritten into a new model in a single pass.
+     * Reusing the map across batches of a streamed payload gives a blank node the same URI in all batches.
+     * 
+     * @param model RDF model
+     * @param skolemMap map of blank nodes to URI nodes
+     * @return new model with skolemized blank nodes
+     */
+    public Model build(Model model, Map<Node, Node> skolemMap)
     {
     	if (model == null) throw new IllegalArgumentException("Model cannot be null");
+    	if (skolemMap == null) throw new IllegalArgumentException("Skolem Map cannot be null");
 
-	Map<Resource, String> resourceURIMap = new HashMap<>();
+        PropertyIndex index = null; // built only if there are blank nodes to skolemize
 	ResIterator resIt = model.listSubjects();
 	try
 	{
 	    while (resIt.hasNext())
 	    {
 		Resource resource = resIt.next();
-                if (resource.isAnon())
+                if (resource.isAnon() && !skolemMap.containsKey(resource.asNode()))
                 {
-                    URI uri = build(resource);
-                    if (uri != null) resourceURIMap.put(resource, uri.toString());
+                    if (index == null) index = new PropertyIndex(model.getGraph(), getLanguages());
+                    URI uri = build(resource, index);
+                    if (uri != null) skolemMap.put(resource.asNode(), NodeFactory.createURI(uri.toString()));
                 }
 	    }
 	}
@@ -137,60 +195,99 @@ public class Skolemizer
 	    resIt.close();
 	}
 	
-	Iterator<Map.Entry<Resource, String>> entryIt = resourceURIMap.entrySet().iterator();
-	while (entryIt.hasNext())
-	{
-	    Map.Entry<Resource, String> entry = entryIt.next();
-	    ResourceUtils.renameResource(entry.getKey(), entry.getValue());
-	}
+        Model skolemized = ModelFactory.createDefaultModel();
+        skolemized.setNsPrefixes(model);
+        rename(model.getGraph(), skolemMap, StreamRDFLib.graph(skolemized.getGraph()));
+	return skolemized;
+    }
+    
+    /**
+     * Writes graph triples to the stream, replacing blank nodes according to the map.
+     * 
+     * @param graph source graph
+     * @param skolemMap map of blank nodes to URI nodes
+     * @param stream destination stream
+     */
+    public static void rename(Graph graph, Map<Node, Node> skolemMap, StreamRDF stream)
+    {
+	if (graph == null) throw new IllegalArgumentException("Graph cannot be null");
+    	if (skolemMap == null) throw new IllegalArgumentException("Skolem Map cannot be null");
+	if (stream == null) throw new IllegalArgumentException("StreamRDF cannot be null");
+
+        ExtendedIterator<Triple> it = graph.find(Node.ANY, Node.ANY, Node.ANY);
+        try
+        {
+            while (it.hasNext()) stream.triple(rename(it.next(), skolemMap));
+        }
+        finally
+        {
+            it.close();
+        }
+    }
 
-	return model;
+    public static Triple rename(Triple triple, Map<Node, Node> skolemMap)
+    {
+        if (!triple.getSubject().isBlank() && !triple.getObject().isBlank()) return triple;
+        
+        return Triple.create(rename(triple.getSubject(), skolemMap), triple.getPredicate(), rename(triple.getObject(), skolemMap));
+    }
+    
+    public static Node rename(Node node, Map<Node, Node> skolemMap)
+    {
+        if (node.isBlank() && skolemMap.containsKey(node)) return skolemMap.get(node);
+        
+        return node;
     }
     
     public URI build(Resource resource)
+    {
+        return build(resource, null);
+    }
+    
+    /**
+     * Builds URI for the resource.
+     * 
+     * @param resource resource
+     * @param index property index of the resource's model, or null to scan resource properties
+     * @return URI or null, if the resource did not match any class
+     */
+    public URI build(Resource resource, PropertyIndex index)
     {
 	if (resource == null) throw new IllegalArgumentException("Resource cannot be null");
         
         UriBuilder builder;
-        Map<String, String> nameValueMap;
         
-        SortedSet<ClassPrecedence> matchedClasses = match(getOntology(), resource, RDF.type, 0);
-        if (!matchedClasses.isEmpty())
+        SkolemizationPlan.ClassTemplate template = getPlan().match(resource);
+        if (template != null)
         {
-            OntClass typeClass = matchedClasses.first().getOntClass();
-            if (log.isDebugEnabled()) log.debug("Skolemizing resource {} using ontology class {}", resource, typeClass);
+            if (log.isDebugEnabled()) log.debug("Skolemizing resource {} using ontology class {}", resource, template.getOntClass());
 
             // skolemization template builds with absolute path builder (e.g. "{slug}")
-            String skolemTemplate = getStringValue(typeClass, LDT.segment);
-            if (skolemTemplate != null)
+            if (template.getSegment() != null)
             {
-                builder = getAbsolutePathBuilder(typeClass).clone();
-                nameValueMap = getNameValueMap(resource, new UriTemplateParser(skolemTemplate));
-                builder.path(skolemTemplate);
+                if (template.getParentURI() != null) builder = UriBuilder.fromUri(template.getParentURI());
+                else builder = getAbsolutePathBuilder().clone();
+                builder.path(template.getSegment());
             }
             else // by default, URI match template builds with base URI builder (e.g. ", "{path: .*}", /files/{slug}")
-            {
-                String uriTemplate = getStringValue(typeClass, LDT.path);
-                builder = getBaseUriBuilder().clone().path(uriTemplate);
-                nameValueMap = getNameValueMap(resource, new UriTemplateParser(uriTemplate));
-            }
+                builder = getBaseUriBuilder().clone().path(template.getPath());
 
             // add fragment identifier
-            String fragmentTemplate = getStringValue(typeClass, LDT.fragment);            
-            return builder.fragment(fragmentTemplate).buildFromMap(nameValueMap);
+            Map<String, String> nameValueMap;
+            if (index != null) nameValueMap = getNameValueMap(resource.asNode(), template.getNames(), index);
+            else nameValueMap = getNameValueMap(resource, template.getNames());
+            return builder.fragment(template.getFragment()).buildFromMap(nameValueMap);
         }
         
         return null;
     }
 
-    protected Map<String, String> getNameValueMap(Resource resource, UriTemplateParser parser)
+    protected Map<String, String> getNameValueMap(Resource resource, List<String> names)
     {
 	if (resource == null) throw new IllegalArgumentException("Resource cannot be null");
-        if (parser == null) throw new IllegalArgumentException("UriTemplateParser cannot be null");
+        if (names == null) throw new IllegalArgumentException("Name List cannot be null");
 
 	Map<String, String> nameValueMap = new HashMap<>();
-	
-        List<String> names = parser.getNames();
 	for (String name : names)
 	{
 	    Literal literal = getLiteral(resource, name);
@@ -201,6 +298,30 @@ public class Skolemizer
         return nameValueMap;
     }
 
+    protected Map<String, String> getNameValueMap(Node node, List<String> names, PropertyIndex index)
+    {
+	if (node == null) throw new IllegalArgumentException("Node cannot be null");
+        if (names == null) throw new IllegalArgumentException("Name List cannot be null");
+        if (index == null) throw new IllegalArgumentException("PropertyIndex cannot be null");
+
+	Map<String, String> nameValueMap = new HashMap<>();
+	for (String name : names)
+	{
+	    Node literal = index.getLiteral(node, name);
+	    if (literal != null)
+		nameValueMap.put(name, literal.getLiteralLexicalForm());
+	}
+
+        return nameValueMap;
+    }
+
+    protected Map<String, String> getNameValueMap(Resource resource, UriTemplateParser parser)
+    {
+        if (parser == null) throw new IllegalArgumentException("UriTemplateParser cannot be null");
+
+        return getNameValueMap(resource, parser.getNames());
+    }
+
     protected Literal getLiteral(Resource resource, String namePath)
     {
 	if (resource == null) throw new IllegalArgumentException("Resource cannot be null");
@@ -259,6 +380,17 @@ public class Skolemizer
 	return null;
     }
     
+    /**
+     * Matches resource against classes with <code>ldt:segment</code> by traversing the ontology imports.
+     * 
+     * @param ontology ontology
+     * @param resource resource
+     * @param property type property
+     * @param level import level
+     * @return sorted set of matched classes
+     * @deprecated classes are matched using the precompiled {@link SkolemizationPlan} instead
+     */
+    @Deprecated
     public SortedSet<ClassPrecedence> match(Ontology ontology, Resource resource, Property property, int level)
     {
         if (ontology == null) throw new IllegalArgumentException("Ontology cannot be null");
@@ -324,7 +456,12 @@ public class Skolemizer
     
     public Ontology getOntology()
     {
-        return ontology;
+        return getPlan().getOntology();
+    }
+    
+    public SkolemizationPlan getPlan()
+    {
+        return plan;
     }
     
     public UriBuilder getBaseUriBuilder()
@@ -332,6 +469,11 @@ public class Skolemizer
         return baseUriBuilder;
     }
 
+    public List<String> getLanguages()
+    {
+        return languages;
+    }
+
     // TO-DO: move to a LDTDH (document hierarchy) specific Skolemizer subclass
     public UriBuilder getAbsolutePathBuilder(OntClass ontClass)
     {
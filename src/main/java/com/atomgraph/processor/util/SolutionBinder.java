@@ -0,0 +1,221 @@
+/*
+ * Copyright 2016 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.processor.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.jena.sparql.core.BasicPattern;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.core.VarExprList;
+import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.graph.NodeTransform;
+import org.apache.jena.sparql.syntax.Element;
+import org.apache.jena.sparql.syntax.ElementSubQuery;
+import org.apache.jena.sparql.syntax.Template;
+import org.apache.jena.sparql.syntax.syntaxtransform.ElementTransformSubst;
+import org.apache.jena.sparql.syntax.syntaxtransform.ExprTransformNodeElement;
+import org.apache.jena.sparql.syntax.syntaxtransform.QueryTransformOps;
+import org.apache.jena.sparql.syntax.syntaxtransform.UpdateTransformOps;
+import org.apache.jena.update.UpdateRequest;
+
+/**
+ * Binds variables of parsed queries and updates to values from a query solution map.
+ * Variables are substituted in the syntax tree, which replaces <code>ParameterizedSparqlString</code>
+ * string substitution and does not require the command to be serialized and parsed again.
+ * Sub-queries are bound as well. Bound variables are removed from the <code>SELECT</code> projection and replaced
+ * with <code>(value AS ?var)</code>, bound <code>DESCRIBE</code> variables become <code>DESCRIBE</code> nodes,
+ * and the <code>CONSTRUCT</code> template is bound too.
+ * 
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ */
+public class SolutionBinder
+{
+
+    /**
+     * Element transform that also binds sub-queries, including their projections.
+     */
+    protected static class ElementTransformBind extends ElementTransformSubst
+    {
+        private final Map<Var, Node> substitutions;
+        
+        public ElementTransformBind(Map<Var, Node> substitutions)
+        {
+            super(substitutions);
+            this.substitutions = substitutions;
+        }
+
+        @Override
+        public Element transform(ElementSubQuery el, Query query)
+        {
+            return new ElementSubQuery(bind(query, substitutions));
+        }
+        
+    }
+    
+    /**
+     * Returns variable/value map of the query solution map.
+     * 
+     * @param qsm query solution map
+     * @return substitution map
+     */
+    public static Map<Var, Node> getSubstitutions(QuerySolutionMap qsm)
+    {
+        if (qsm == null) throw new IllegalArgumentException("QuerySolutionMap cannot be null");
+
+        Map<Var, Node> substitutions = new HashMap<>();
+        Iterator<String> it = qsm.varNames();
+        while (it.hasNext())
+        {
+            String varName = it.next();
+            substitutions.put(Var.alloc(varName), qsm.get(varName).asNode());
+        }
+        
+        return substitutions;
+    }
+    
+    /**
+     * Binds query. The given query is not modified.
+     * 
+     * @param query parsed query
+     * @param qsm variable bindings
+     * @return bound query copy
+     */
+    public static Query bind(Query query, QuerySolutionMap qsm)
+    {
+        return bind(query, getSubstitutions(qsm));
+    }
+
+    /**
+     * Binds query. The given query is not modified.
+     * 
+     * @param query parsed query
+     * @param substitutions variable bindings
+     * @return bound query copy
+     */
+    public static Query bind(Query query, final Map<Var, Node> substitutions)
+    {
+        if (query == null) throw new IllegalArgumentException("Query cannot be null");
+        if (substitutions == null) throw new IllegalArgumentException("Substitution Map cannot be null");
+        
+        Query copy = QueryTransformOps.shallowCopy(query);
+        if (substitutions.isEmpty()) return copy;
+        
+        // bound variables cannot be projected, remove them before the pattern is transformed
+        List<Var> projectVars = new ArrayList<>();
+        Map<Var, Expr> projectExprs = new HashMap<>();
+        if ((copy.isSelectType() || copy.isDescribeType()) && !copy.isQueryResultStar())
+        {
+            VarExprList project = copy.getProject();
+            projectVars.addAll(project.getVars());
+            for (Var var : projectVars)
+                if (project.getExpr(var) != null) projectExprs.put(var, project.getExpr(var));
+            
+            project.clear();
+            for (Var var : projectVars)
+                if (!substitutions.containsKey(var))
+                {
+                    if (projectExprs.containsKey(var)) project.add(var, projectExprs.get(var));
+                    else project.add(var);
+                }
+        }
+        
+        ElementTransformBind elementTransform = new ElementTransformBind(substitutions);
+        NodeTransform nodeTransform = new NodeTransform()
+        {
+
+            @Override
+            public Node apply(Node node)
+            {
+                Node value = substitutions.get(node);
+                if (value != null) return value;
+                
+                return node;
+            }
+            
+        };
+        Query bound = QueryTransformOps.transform(copy, elementTransform, new ExprTransformNodeElement(nodeTransform, elementTransform));
+
+        if (bound.isSelectType() && !projectVars.isEmpty())
+        {
+            // restore projection order, with bound variables as (value AS ?var)
+            VarExprList project = bound.getProject();
+            Map<Var, Expr> boundExprs = new HashMap<>();
+            for (Var var : project.getVars())
+                if (project.getExpr(var) != null) boundExprs.put(var, project.getExpr(var));
+            
+            project.clear();
+            for (Var var : projectVars)
+                if (substitutions.containsKey(var)) project.add(var, NodeValue.makeNode(substitutions.get(var)));
+                else
+                {
+                    if (boundExprs.containsKey(var)) project.add(var, boundExprs.get(var));
+                    else project.add(var);
+                }
+        }
+        
+        if (bound.isDescribeType())
+            for (Var var : projectVars)
+                if (substitutions.containsKey(var)) bound.addDescribeNode(substitutions.get(var));
+        
+        if (bound.isConstructType() && copy.getConstructTemplate() != null)
+            bound.setConstructTemplate(bind(copy.getConstructTemplate(), nodeTransform));
+        
+        return bound;
+    }
+    
+    /**
+     * Binds <code>CONSTRUCT</code> template.
+     * 
+     * @param template query template
+     * @param nodeTransform substitution
+     * @return new template
+     */
+    public static Template bind(Template template, NodeTransform nodeTransform)
+    {
+        if (template == null) throw new IllegalArgumentException("Template cannot be null");
+        
+        BasicPattern bgp = new BasicPattern();
+        for (Triple triple : template.getBGP().getList())
+            bgp.add(Triple.create(nodeTransform.apply(triple.getSubject()),
+                    nodeTransform.apply(triple.getPredicate()),
+                    nodeTransform.apply(triple.getObject())));
+        
+        return new Template(bgp);
+    }
+
+    /**
+     * Binds update request. The given request is not modified.
+     * 
+     * @param request parsed update request
+     * @param qsm variable bindings
+     * @return bound update request
+     */
+    public static UpdateRequest bind(UpdateRequest request, QuerySolutionMap qsm)
+    {
+        if (request == null) throw new IllegalArgumentException("UpdateRequest cannot be null");
+
+        return UpdateTransformOps.transform(request, getSubstitutions(qsm));
+    }
+
+}
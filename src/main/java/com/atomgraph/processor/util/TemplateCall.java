@@ -17,7 +17,10 @@ package com.atomgraph.processor.util;
 
 import com.atomgraph.processor.exception.ParameterException;
 import com.atomgraph.processor.model.Template;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import javax.ws.rs.core.MultivaluedMap;
@@ -27,24 +30,97 @@ import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.Property;
 import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
 import org.spinrdf.model.SPINFactory;
 import com.atomgraph.processor.model.Parameter;
 import com.atomgraph.processor.vocabulary.LDT;
 import com.sun.jersey.api.uri.UriComponent;
-import java.util.Iterator;
 import org.apache.jena.rdf.model.Statement;
 import org.apache.jena.rdf.model.StmtIterator;
 import org.apache.jena.vocabulary.RDF;
 import org.spinrdf.vocabulary.SPL;
 
 /**
- *
+ * Template call: the matched template with arguments from the request URI, i.e. the application state.
+ * Arguments are kept in a map keyed by parameter predicate. Their RDF representation (<code>ldt:arg</code> resources)
+ * is only created when the state is built or the arguments are listed as RDF.
+ * 
  * @author Martynas Jusevičius <martynas@atomgraph.com>
  */
 public class TemplateCall extends com.atomgraph.core.util.StateBuilder
 {
     
     private final Template template;
+    private final Map<Property, List<Argument>> arguments = new LinkedHashMap<>();
+    private boolean materialized = false;
+    
+    /**
+     * Template call argument.
+     */
+    public static class Argument
+    {
+        private final Resource param;
+        private final Property predicate;
+        private final String paramName;
+        private final RDFNode value;
+        private Resource resource;
+        
+        public Argument(Resource param, Property predicate, String paramName, RDFNode value)
+        {
+            if (predicate == null) throw new IllegalArgumentException("Property cannot be null");
+            if (value == null) throw new IllegalArgumentException("RDFNode cannot be null");
+            
+            this.param = param;
+            this.predicate = predicate;
+            this.paramName = paramName;
+            this.value = value;
+        }
+        
+        public Resource getParam()
+        {
+            return param;
+        }
+
+        public Property getPredicate()
+        {
+            return predicate;
+        }
+
+        public String getParamName()
+        {
+            return paramName;
+        }
+
+        public RDFNode getValue()
+        {
+            return value;
+        }
+
+        /**
+         * Returns RDF representation of this argument, if it has been created.
+         * 
+         * @return argument resource or null
+         */
+        public Resource getResource()
+        {
+            return resource;
+        }
+        
+        protected Resource createResource(Model model)
+        {
+            if (resource == null)
+            {
+                resource = model.createResource();
+                if (getParam() != null) resource.addProperty(RDF.type, getParam());
+                if (getParamName() != null) resource.addLiteral(LDT.paramName, getParamName());
+                resource.addProperty(SPL.predicate, getPredicate()).
+                    addProperty(RDF.value, getValue());
+            }
+            
+            return resource;
+        }
+        
+    }
     
     protected TemplateCall(Resource resource, Template template)
     {
@@ -73,43 +149,61 @@ public class TemplateCall extends com.atomgraph.core.util.StateBuilder
         return template;
     }
     
+    /**
+     * Returns state URI, which includes the arguments as query parameters.
+     * 
+     * @return URI string
+     */
     public String getURI()
     {
-        return getResource().getURI();
+        return getUriBuilder().build().toString();
+    }
+    
+    /**
+     * Builds state resource. The RDF representation of the arguments is created first.
+     * 
+     * @return state resource
+     */
+    @Override
+    public Resource build()
+    {
+        materialize();
+        
+        return super.build();
+    }
+    
+    /**
+     * Adds <code>ldt:arg</code> resources for arguments that do not have RDF representation yet.
+     */
+    protected void materialize()
+    {
+        if (materialized) return;
+        
+        for (List<Argument> args : arguments.values())
+            for (Argument arg : args)
+                if (arg.getResource() == null) getResource().addProperty(LDT.arg, arg.createResource(getResource().getModel()));
+        
+        materialized = true;
     }
     
     public TemplateCall applyArguments(MultivaluedMap<String, String> queryParams)
     {
 	if (queryParams == null) throw new IllegalArgumentException("Query parameter map cannot be null");
 
+        Map<String, Parameter> paramMap = getTemplate().getParameterMap();
         // iterate query params to find unrecognized ones
-        Set<String> argNames = queryParams.keySet();
-        for (String argName : argNames)
-        {
-            Parameter param = getTemplate().getParameterMap().get(argName);
-            if (param == null) throw new ParameterException(argName, getTemplate());
-        }
+        for (String argName : queryParams.keySet())
+            if (!paramMap.containsKey(argName)) throw new ParameterException(argName, getTemplate());
         
         // iterate parameters to find those that match query argument names
-        Set<String> paramNames = getTemplate().getParameterMap().keySet();
-        for (String paramName : paramNames)
+        for (Entry<String, Parameter> entry : paramMap.entrySet())
         {
-            Parameter param = getTemplate().getParameterMap().get(paramName);
-            if (queryParams.containsKey(paramName))
+            List<String> argValues = queryParams.get(entry.getKey());
+            if (argValues != null)
             {
-                List<String> argValues = queryParams.get(paramName);
+                Parameter param = entry.getValue();
                 for (String argValue : argValues)
-                {
-                    //property(param.getPredicate(), RDFNodeFactory.createTyped(argValue, param.getValueType()));
-                    
-                    Resource arg = getResource().getModel().createResource().
-                        addProperty(RDF.type, param).
-                        addLiteral(LDT.paramName, paramName).
-                        addProperty(SPL.predicate, param.getPredicate()).
-                        addProperty(RDF.value, RDFNodeFactory.createTyped(argValue, param.getValueType()));
-                    
-                    arg(arg);
-                }
+                    arg(new Argument(param, param.getPredicate(), entry.getKey(), RDFNodeFactory.createTyped(argValue, param.getValueType())));
             }
         }
         
@@ -118,94 +212,94 @@ public class TemplateCall extends com.atomgraph.core.util.StateBuilder
     
     public TemplateCall applyDefaults()
     {
-        Iterator<Parameter> paramIt = getTemplate().getParameters().values().iterator();
-        
-        while (paramIt.hasNext())
-        {
-            Parameter param = paramIt.next();
-            RDFNode defaultValue = param.getDefaultValue();
-            if (defaultValue != null && !hasArgument(param.getPredicate()))
-            {
-                Resource arg = getResource().getModel().createResource().
-                    addProperty(RDF.type, param).
-                    addLiteral(LDT.paramName, param.getPredicate().getLocalName()).
-                    addProperty(SPL.predicate, param.getPredicate()).
-                    addProperty(RDF.value, defaultValue);
-
-                arg(arg);
-            }            
-        }
+        for (Entry<Property, RDFNode> entry : getTemplate().getDefaultValues().entrySet())
+            if (!hasArgument(entry.getKey()))
+                arg(new Argument(getTemplate().getParameters().get(entry.getKey()), entry.getKey(), entry.getKey().getLocalName(), entry.getValue()));
         
         return this;
     }
 
     public StmtIterator listArguments()
     {
+        materialize();
+        
         return getResource().listProperties(LDT.arg);
     }
     
     public boolean hasArgument(Property predicate)
     {
-        return getArgument(predicate) != null;
+	if (predicate == null) throw new IllegalArgumentException("Property cannot be null");
+
+        return arguments.containsKey(predicate);
     }
     
-    public Resource getArgument(Property predicate)
+    /**
+     * Returns the first argument of the parameter with the given predicate.
+     * 
+     * @param predicate parameter predicate
+     * @return argument or null, if none
+     */
+    public Argument getArgumentValue(Property predicate)
     {
 	if (predicate == null) throw new IllegalArgumentException("Property cannot be null");
         
-        StmtIterator it = getResource().listProperties(LDT.arg);
+        List<Argument> args = arguments.get(predicate);
+        if (args == null) return null;
         
-        try
-        {
-            while (it.hasNext())
-            {
-                Statement stmt = it.next();
-                Resource arg = stmt.getObject().asResource();
-                if (arg.getProperty(SPL.predicate).getResource().equals(predicate)) return arg;
-            }
-        }
-        finally
-        {
-            it.close();
-        }
+        return args.get(0);
+    }
+    
+    /**
+     * Returns RDF representation of the argument.
+     * 
+     * @param predicate parameter predicate
+     * @return argument resource or null, if none
+     */
+    public Resource getArgument(Property predicate)
+    {
+        Argument arg = getArgumentValue(predicate);
+        if (arg == null) return null;
         
-        return null;
+        materialize();
+        return arg.getResource();
     }
 
     public boolean hasArgument(Property predicate, RDFNode object)
     {
-        return getArgument(predicate, object) != null;
+        return getArgumentValue(predicate, object) != null;
     }
 
-    public Resource getArgument(Property predicate, RDFNode object)
+    public Argument getArgumentValue(Property predicate, RDFNode object)
     {
 	if (predicate == null) throw new IllegalArgumentException("Property cannot be null");
 	if (object == null) throw new IllegalArgumentException("RDFNode cannot be null");
         
-        StmtIterator it = getResource().listProperties(LDT.arg);
-        
-        try
-        {
-            while (it.hasNext())
-            {
-                Statement stmt = it.next();
-                Resource arg = stmt.getObject().asResource();
-                if (arg.getProperty(SPL.predicate).getResource().equals(predicate) &&
-                        arg.getProperty(RDF.value).getObject().equals(object)) return arg;
-            }
-        }
-        finally
-        {
-            it.close();
-        }
+        List<Argument> args = arguments.get(predicate);
+        if (args != null)
+            for (Argument arg : args)
+                if (arg.getValue().equals(object)) return arg;
         
         return null;
     }
 
+    public Resource getArgument(Property predicate, RDFNode object)
+    {
+        Argument arg = getArgumentValue(predicate, object);
+        if (arg == null) return null;
+        
+        materialize();
+        return arg.getResource();
+    }
+
     public Statement getArgumentProperty(Property predicate)
     {
-        Resource arg = getArgument(predicate);
-        if (arg != null) return arg.getRequiredProperty(RDF.value);
+        Argument arg = getArgumentValue(predicate);
+        if (arg != null)
+        {
+            if (arg.getResource() != null) return arg.getResource().getRequiredProperty(RDF.value);
+            
+            return ResourceFactory.createStatement(ResourceFactory.createResource(), RDF.value, arg.getValue());
+        }
         
         return null;
     }
@@ -214,10 +308,31 @@ public class TemplateCall extends com.atomgraph.core.util.StateBuilder
     {
         if (arg == null) throw new IllegalArgumentException("Resource cannot be null");        
         
+        Property predicate = ResourceFactory.createProperty(arg.getPropertyResourceValue(SPL.predicate).getURI());
+        Statement paramName = arg.getProperty(LDT.paramName);
+        Argument argument = new Argument(arg.getPropertyResourceValue(RDF.type), predicate,
+                paramName != null ? paramName.getString() : null, arg.getProperty(RDF.value).getObject());
+        argument.resource = arg;
         getResource().addProperty(LDT.arg, arg);
 
-        String paramName = arg.getPropertyResourceValue(SPL.predicate).getLocalName();
-        RDFNode value = arg.getProperty(RDF.value).getObject();
+        return arg(argument);
+    }
+    
+    public TemplateCall arg(Argument arg)
+    {
+        if (arg == null) throw new IllegalArgumentException("Argument cannot be null");        
+        
+        List<Argument> args = arguments.get(arg.getPredicate());
+        if (args == null)
+        {
+            args = new ArrayList<>(1);
+            arguments.put(arg.getPredicate(), args);
+        }
+        args.add(arg);
+        if (arg.getResource() == null) materialized = false;
+        
+        String paramName = arg.getPredicate().getLocalName();
+        RDFNode value = arg.getValue();
         String encodedValue = value.toString(); // not a reliable serialization
         // we URI-encode values ourselves because Jersey 1.x fails to do so: https://java.net/jira/browse/JERSEY-1717
         if (value.isURIResource()) encodedValue = UriComponent.encode(value.asResource().getURI(), UriComponent.Type.UNRESERVED);
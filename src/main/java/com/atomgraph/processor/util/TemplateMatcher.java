@@ -30,14 +30,22 @@ import java.util.List;
 import com.atomgraph.processor.exception.OntologyException;
 import com.atomgraph.processor.model.Template;
 import com.atomgraph.processor.vocabulary.LDT;
+import java.util.ArrayDeque;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * JAX-RS provider for resource template class in the sitemap ontology that matches the current request.
- * 
+ * Matches request URIs against resource templates in the sitemap ontology.
+ * The templates and their URI templates are compiled into a routing index once, when the matcher is constructed,
+ * so that a single instance can be reused for all requests against the same sitemap.
+ *
  * @author Martynas Jusevičius <martynas@atomgraph.com>
  */
 public class TemplateMatcher
@@ -45,10 +53,13 @@ public class TemplateMatcher
     private static final Logger log = LoggerFactory.getLogger(TemplateMatcher.class);
 
     private final Ontology ontology;
-    
+    private final List<TemplatePrecedence> precedences;
+    private final PrefixNode root = new PrefixNode();
+    private final boolean indexed;
+
     public static class TemplatePrecedence
     {
-        
+
         static public final Comparator<TemplatePrecedence> COMPARATOR = new Comparator<TemplatePrecedence>()
         {
 
@@ -59,33 +70,66 @@ public class TemplateMatcher
             }
 
         };
-        
+
+        /**
+         * Orders by import precedence first, and then the same way as <code>Template.COMPARATOR</code>,
+         * using the compiled URI template instead of parsing it again.
+         */
+        static public final Comparator<TemplatePrecedence> MATCH_COMPARATOR = new Comparator<TemplatePrecedence>()
+        {
+
+            @Override
+            public int compare(TemplatePrecedence template1, TemplatePrecedence template2)
+            {
+                int diff = COMPARATOR.compare(template1, template2);
+                if (diff != 0) return diff;
+
+                return compareTemplates(template1, template2);
+            }
+
+        };
+
         private final Template template;
         private final int precedence;
-        
+        private final UriTemplate path;
+        private final double priority;
+
         public TemplatePrecedence(Template template, int precedence)
         {
+            if (template == null) throw new IllegalArgumentException("Template cannot be null");
             this.template = template;
             this.precedence = precedence;
+            this.path = template.getPath();
+            this.priority = template.getPriority();
         }
-        
+
         public Template getTemplate()
         {
             return template;
         }
-        
+
         public int getPrecedence()
         {
             return precedence;
         }
-        
+
+        public UriTemplate getPath()
+        {
+            return path;
+        }
+
+        public double getPriority()
+        {
+            return priority;
+        }
+
         @Override
         public int hashCode()
         {
             int hash = 7;
             hash = 59 * hash + Objects.hashCode(getPrecedence());
-            hash = 59 * hash + Objects.hashCode(getTemplate().getPriority());
-            hash = 59 * hash + Objects.hashCode(getTemplate().getPath());
+            hash = 59 * hash + Objects.hashCode(getPriority());
+            hash = 59 * hash + Objects.hashCode(getPath());
             return hash;
         }
 
@@ -97,7 +141,7 @@ public class TemplateMatcher
             final TemplatePrecedence other = (TemplatePrecedence) obj;
             return Objects.equals(getPrecedence(), other.getPrecedence());
         }
-        
+
         @Override
         public String toString()
         {
@@ -109,17 +153,80 @@ public class TemplateMatcher
             append("]").
             toString();
         }
-        
+
     }
-    
+
+    /**
+     * Node of the literal path prefix trie. Entries are indexes into the sorted template list.
+     */
+    private static class PrefixNode
+    {
+
+        private final Map<Character, PrefixNode> children = new HashMap<>();
+        private final List<Integer> entries = new ArrayList<>();
+
+        public PrefixNode getChild(char c)
+        {
+            return children.get(c);
+        }
+
+        public PrefixNode addChild(char c)
+        {
+            PrefixNode child = children.get(c);
+            if (child == null)
+            {
+                child = new PrefixNode();
+                children.put(c, child);
+            }
+            return child;
+        }
+
+        public List<Integer> getEntries()
+        {
+            return entries;
+        }
+
+    }
+
     public TemplateMatcher(Ontology ontology)
     {
-        this.ontology = ontology;
+        this(ontology, true);
     }
     
     /**
-     * Given an absolute URI and a base URI, returns ontology class with a matching URI template, if any.
+     * Constructs matcher for the sitemap ontology.
+     * The prefix index only pays off if the matcher is reused, so it should not be built for a single match.
+     * Without it, all templates are tested in the order of precedence and priority.
      * 
+     * @param ontology sitemap ontology
+     * @param index true if the literal prefix index should be built
+     */
+    public TemplateMatcher(Ontology ontology, boolean index)
+    {
+        if (ontology == null) throw new IllegalArgumentException("Ontology cannot be null");
+        this.ontology = ontology;
+        this.indexed = index;
+
+        precedences = new ArrayList<>(getPrecedences(ontology).values());
+        Collections.sort(precedences, TemplatePrecedence.MATCH_COMPARATOR);
+        if (index)
+        {
+            for (int i = 0; i < precedences.size(); i++)
+            {
+                PrefixNode node = root;
+                String prefix = getLiteralPrefix(precedences.get(i).getPath());
+                for (int j = 0; j < prefix.length(); j++)
+                    node = node.addChild(prefix.charAt(j));
+                node.getEntries().add(i);
+            }
+
+            if (log.isDebugEnabled()) log.debug("Compiled {} Templates from sitemap {} into routing index", precedences.size(), ontology);
+        }
+    }
+
+    /**
+     * Given an absolute URI and a base URI, returns ontology class with a matching URI template, if any.
+     *
      * @param uri absolute URI being matched
      * @param base base URI
      * @return matching ontology class or null, if none
@@ -130,135 +237,245 @@ public class TemplateMatcher
 	if (base == null) throw new IllegalArgumentException("Base URI cannot be null");
 	if (!uri.isAbsolute()) throw new IllegalArgumentException("URI being matched \"" + uri + "\" is not absolute");
 	if (base.relativize(uri).equals(uri)) throw new IllegalArgumentException("URI being matched \"" + uri + "\" is not relative to the base URI \"" + base + "\"");
-	    
+
 	StringBuilder path = new StringBuilder();
 	// instead of path, include query string by relativizing request URI against base URI
 	path.append("/").append(base.relativize(uri));
-	return match(getOntology(), path);
+	return match(path);
     }
-            
+
     /**
-     * Matches path (relative URI) against URI templates in sitemap ontology.
-     * This method uses Jersey implementation of the JAX-RS URI matching algorithm.
-     * 
+     * Collects resource templates from the ontology and its imports, mapped to their import precedence.
+     * Imports are traversed breadth-first, so a template reachable via several import paths gets the highest precedence.
+     *
      * @param ontology sitemap ontology
-     * @param path URI path
-     * @param level
-     * @return URI template/class mapping
-     */    
-    public List<TemplatePrecedence> match(Ontology ontology, CharSequence path, int level)
+     * @return template/precedence mapping
+     */
+    protected Map<Template, TemplatePrecedence> getPrecedences(Ontology ontology)
     {
         if (ontology == null) throw new IllegalArgumentException("Ontology cannot be null");
-        if (path == null) throw new IllegalArgumentException("CharSequence cannot be null");
-        
-        if (log.isTraceEnabled()) log.trace("Matching path '{}' against resource templates in sitemap: {}", path, ontology);
-        if (log.isTraceEnabled()) log.trace("Ontology import level: {}", level);
-        List<TemplatePrecedence> matches = new ArrayList<>();
 
-        ResIterator it = ontology.getOntModel().listResourcesWithProperty(RDF.type, LDT.Template);
-        try
+        Map<Template, TemplatePrecedence> precedences = new LinkedHashMap<>();
+        Set<Ontology> visited = new HashSet<>();
+        Queue<Ontology> queue = new ArrayDeque<>();
+        Map<Ontology, Integer> levels = new HashMap<>();
+        queue.add(ontology);
+        levels.put(ontology, 0);
+        visited.add(ontology);
+
+        while (!queue.isEmpty())
         {
-            while (it.hasNext())
+            Ontology current = queue.remove();
+            int level = levels.get(current);
+            if (log.isTraceEnabled()) log.trace("Indexing Templates of sitemap {} at import level: {}", current, level);
+
+            ResIterator it = current.getOntModel().listResourcesWithProperty(RDF.type, LDT.Template);
+            try
             {
-                Template template = it.next().as(Template.class);
-                // only match templates defined in this ontology - maybe reverse loops?
-                if (template.getIsDefinedBy() != null && template.getIsDefinedBy().equals(ontology))
+                while (it.hasNext())
                 {
-                    if (template.getPath() == null)
+                    Template template = it.next().as(Template.class);
+                    // only match templates defined in this ontology - maybe reverse loops?
+                    if (template.getIsDefinedBy() != null && template.getIsDefinedBy().equals(current) &&
+                            !precedences.containsKey(template))
                     {
-                        if (log.isErrorEnabled()) log.error("Template class {} does not have value for {} annotation", template, LDT.path);
-                        throw new OntologyException("Template class '" + template + "' does not have value for '" + LDT.path + "' annotation");
-                    }
-
-                    UriTemplate uriTemplate = template.getPath();
-                    HashMap<String, String> map = new HashMap<>();
+                        if (template.getPath() == null)
+                        {
+                            if (log.isErrorEnabled()) log.error("Template class {} does not have value for {} annotation", template, LDT.path);
+                            throw new OntologyException("Template class '" + template + "' does not have value for '" + LDT.path + "' annotation");
+                        }
 
-                    if (uriTemplate.match(path, map))
-                    {
-                        if (log.isTraceEnabled()) log.trace("Path {} matched UriTemplate {}", path, uriTemplate);
-                        if (log.isTraceEnabled()) log.trace("Path {} matched OntClass {}", path, template);
-                        
-                        TemplatePrecedence precedence = new TemplatePrecedence(template, level * -1);
-                        matches.add(precedence);
+                        precedences.put(template, new TemplatePrecedence(template, level * -1));
                     }
-                    else
-                        if (log.isTraceEnabled()) log.trace("Path {} did not match UriTemplate {}", path, uriTemplate);
                 }
             }
+            finally
+            {
+                it.close();
+            }
 
-            List<Ontology> importedOntologies = new ArrayList<>(); // collect imports first to avoid CME within iterator
-            ExtendedIterator<OntResource> importIt = ontology.listImports();
+            ExtendedIterator<OntResource> importIt = current.listImports();
             try
             {
                 while (importIt.hasNext())
                 {
                     OntResource importRes = importIt.next();
-                    if (importRes.canAs(Ontology.class)) importedOntologies.add(importRes.asOntology());
+                    if (importRes.canAs(Ontology.class))
+                    {
+                        Ontology importedOntology = importRes.asOntology();
+                        if (visited.add(importedOntology))
+                        {
+                            levels.put(importedOntology, level + 1);
+                            queue.add(importedOntology);
+                        }
+                    }
                 }
             }
             finally
             {
                 importIt.close();
             }
-            
-            //traverse imports recursively, safely make changes to OntModel outside the iterator
-            for (Ontology importedOntology : importedOntologies)
-                matches.addAll(match(importedOntology, path, level + 1));            
-        }
-        finally
-        {
-            it.close();
         }
 
-        return matches;
+        return precedences;
     }
-    
+
     /**
-     * Given a relative URI and URI template property, returns ontology class with a matching URI template, if any.
+     * Matches path (relative URI) against URI templates in sitemap ontology.
      * URIs are matched against the URI templates specified in resource templates (sitemap ontology classes).
      * Templates in the base ontology model have priority (are matched first) against templates in imported ontologies.
-     * 
-     * @param ontology sitemap ontology model
+     * Only templates whose literal prefix is a prefix of the path are tested, in the order of precedence and priority.
+     * This method uses Jersey implementation of the JAX-RS URI matching algorithm.
+     *
      * @param path absolute path (relative URI)
      * @return matching ontology class or null, if none
      * @see <a href="https://jsr311.java.net/nonav/releases/1.1/spec/spec3.html#x3-340003.7">3.7 Matching Requests to Resource Methods (JAX-RS 1.1)</a>
      * @see <a href="https://jersey.java.net/nonav/apidocs/1.16/jersey/com/sun/jersey/api/uri/UriTemplate.html">Jersey UriTemplate</a>
      */
+    public Template match(CharSequence path)
+    {
+        if (path == null) throw new IllegalArgumentException("CharSequence cannot be null");
+        if (log.isTraceEnabled()) log.trace("Matching path '{}' against resource templates in sitemap: {}", path, getOntology());
+
+        List<Integer> candidates = getCandidates(path);
+
+        TemplatePrecedence match = null;
+        Map<String, String> map = new HashMap<>();
+        for (Integer index : candidates)
+        {
+            TemplatePrecedence candidate = precedences.get(index);
+            // candidates are sorted, so the remaining ones cannot conflict with the match
+            if (match != null && TemplatePrecedence.MATCH_COMPARATOR.compare(match, candidate) != 0) break;
+
+            if (candidate.getPath().match(path, map))
+            {
+                if (match == null)
+                {
+                    if (log.isDebugEnabled()) log.debug("Path: {} matched Template: {}", path, candidate.getTemplate());
+                    match = candidate;
+                }
+                else
+                    // check for conflicts (Templates with equal priority and UriTemplate)
+                    if (log.isWarnEnabled()) log.warn("Path: {} has conflicting Template: {} (it is equal to the matched one)", path, candidate.getTemplate());
+            }
+            else
+                if (log.isTraceEnabled()) log.trace("Path {} did not match UriTemplate {}", path, candidate.getPath());
+        }
+
+        if (match != null) return match.getTemplate();
+
+        if (log.isDebugEnabled()) log.debug("Path {} has no Template match in this OntModel", path);
+        return null;
+    }
+
+    /**
+     * Matches path (relative URI) against URI templates in sitemap ontology.
+     * 
+     * @param ontology sitemap ontology model
+     * @param path absolute path (relative URI)
+     * @return matching ontology class or null, if none
+     * @deprecated use {@link #match(CharSequence)} of a matcher constructed for the ontology
+     */
+    @Deprecated
     public Template match(Ontology ontology, CharSequence path)
     {
-	if (ontology == null) throw new IllegalArgumentException("OntModel cannot be null");
+	if (ontology == null) throw new IllegalArgumentException("Ontology cannot be null");
+
+        if (ontology.equals(getOntology())) return match(path);
+        return new TemplateMatcher(ontology, false).match(path);
+    }
+    
+    /**
+     * Returns all templates in the ontology and its imports whose URI templates match the path.
+     * 
+     * @param ontology sitemap ontology
+     * @param path URI path
+     * @param level import level of the ontology
+     * @return URI template/class mapping
+     * @deprecated use {@link #match(CharSequence)}, which returns the template with the highest precedence and priority
+     */
+    @Deprecated
+    public List<TemplatePrecedence> match(Ontology ontology, CharSequence path, int level)
+    {
+        if (ontology == null) throw new IllegalArgumentException("Ontology cannot be null");
+        if (path == null) throw new IllegalArgumentException("CharSequence cannot be null");
+
+        List<TemplatePrecedence> matches = new ArrayList<>();
+        for (TemplatePrecedence precedence : getPrecedences(ontology).values())
+            if (precedence.getPath().match(path, new HashMap<String, String>()))
+                matches.add(new TemplatePrecedence(precedence.getTemplate(), precedence.getPrecedence() - level));
         
-        List<TemplatePrecedence> precedences = match(ontology, path, 0);
-        if (!precedences.isEmpty())
+        return matches;
+    }
+    
+    /**
+     * Returns indexes of the templates which might match the path, in the order of precedence and priority.
+     * 
+     * @param path absolute path (relative URI)
+     * @return sorted template indexes
+     */
+    protected List<Integer> getCandidates(CharSequence path)
+    {
+        List<Integer> candidates = new ArrayList<>();
+        if (!isIndexed())
         {
-            // step 1: collect matching Templates with highest import precedence
-            List<Template> topMatches = new ArrayList<>();
-            Collections.sort(precedences, TemplatePrecedence.COMPARATOR);
-            TemplatePrecedence maxPrecedence = precedences.get(0);
-            for (TemplatePrecedence precedence : precedences)
-                if (precedence.equals(maxPrecedence)) topMatches.add(precedence.getTemplate());
-
-            // step 2: Template with the highest priority is the match
-            if (log.isTraceEnabled()) log.trace("{} path matched these Templates: {} (selecting the first UriTemplate)", path, precedences);
-            Collections.sort(topMatches, Template.COMPARATOR);
-            Template match = topMatches.get(0);
-            if (log.isDebugEnabled()) log.debug("Path: {} matched Template: {}", path, match);
-            
-            // step3: check for conflicts (Templates with equal priority and UriTemplate)
-            for (Template template : topMatches)
-                if (template != match && template.equals(match))
-                    if (log.isWarnEnabled()) log.warn("Path: {} has conflicting Template: {} (it is equal to the matched one)", path, template);
-
-            return match;
+            for (int i = 0; i < precedences.size(); i++) candidates.add(i);
+            return candidates;
         }
         
-        if (log.isDebugEnabled()) log.debug("Path {} has no Template match in this OntModel", path);
-        return null;
+        candidates.addAll(root.getEntries());
+        PrefixNode node = root;
+        for (int i = 0; i < path.length() && node != null; i++)
+        {
+            node = node.getChild(path.charAt(i));
+            if (node != null) candidates.addAll(node.getEntries());
+        }
+        Collections.sort(candidates);
+        
+        return candidates;
     }
     
+    /**
+     * Returns the literal characters at the start of the URI template, before the first template variable.
+     * The prefix stops at characters which might be encoded differently in the request URI.
+     *
+     * @param uriTemplate URI template
+     * @return literal prefix
+     */
+    public static String getLiteralPrefix(UriTemplate uriTemplate)
+    {
+        if (uriTemplate == null) throw new IllegalArgumentException("UriTemplate cannot be null");
+
+        String template = uriTemplate.getTemplate();
+        int i = 0;
+        while (i < template.length() && isUnreserved(template.charAt(i))) i++;
+        return template.substring(0, i);
+    }
+
+    private static boolean isUnreserved(char c)
+    {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                c == '/' || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+
+    private static int compareTemplates(TemplatePrecedence template1, TemplatePrecedence template2)
+    {
+        // same as Template.COMPARATOR
+        double diff = template2.getPriority() - template1.getPriority();
+        if (diff > 0) return 1;
+        if (diff < 0) return -1;
+
+        return UriTemplate.COMPARATOR.compare(template1.getPath(), template2.getPath());
+    }
+
     public Ontology getOntology()
     {
         return ontology;
     }
-    
-}
\ No newline at end of file
+
+    public boolean isIndexed()
+    {
+        return indexed;
+    }
+
+}
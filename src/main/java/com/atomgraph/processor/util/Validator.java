@@ -16,6 +16,8 @@
 
 package com.atomgraph.processor.util;
 
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.compose.MultiUnion;
 import org.apache.jena.ontology.OntModel;
 import org.apache.jena.ontology.OntModelSpec;
 import org.apache.jena.query.Query;
@@ -24,15 +26,35 @@ import org.apache.jena.query.QueryExecutionFactory;
 import org.apache.jena.query.QueryFactory;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.ResIterator;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.OWL;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spinrdf.constraints.ConstraintViolation;
 import org.spinrdf.constraints.SPINConstraints;
 import org.spinrdf.system.SPINModuleRegistry;
+import org.spinrdf.vocabulary.SPIN;
 
 /**
- *
+ * SPIN constraint validator.
+ * Constraints are compiled once per sitemap ontology: the fixed ontology model is built and SPIN functions are
+ * registered in the constructor, and the classes that have (possibly inherited) <code>spin:constraint</code>s are indexed.
+ * Only payload resources with one of the constrained types are checked, against a union view of the payload and
+ * the ontology.
+ * The whole payload is checked instead when the index cannot tell which resources are constrained: if constraints
+ * are attached to <code>rdfs:Resource</code>, <code>owl:Thing</code>, anonymous or equivalent classes, or if the
+ * payload itself declares subclasses or equivalent classes.
+ * 
  * @author Martynas Jusevičius <martynas@atomgraph.com>
  */
 public class Validator
@@ -40,27 +62,176 @@ public class Validator
     private static final Logger log = LoggerFactory.getLogger(Validator.class);
     
     private final OntModel ontModel;
+    private final OntModel fixedOntModel;
+    private final Set<Resource> constrainedClasses;
+    private final boolean indexed;
         
     public Validator(OntModel ontModel)
     {
 	if (ontModel == null) throw new IllegalArgumentException("OntModel cannot be null");
         this.ontModel = ontModel;
         SPINModuleRegistry.get().registerAll(ontModel, null);
+        this.fixedOntModel = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM); // plain copy, no inference on validation
+        this.fixedOntModel.add(fixOntModel(ontModel));
+        this.constrainedClasses = Collections.unmodifiableSet(getConstrainedClasses(fixedOntModel));
+        this.indexed = isIndexable(fixedOntModel, constrainedClasses);
+        if (log.isDebugEnabled()) log.debug("Compiled SPIN constraints for classes: {} (indexed: {})", constrainedClasses, indexed);
     }
 
     public List<ConstraintViolation> validate(Model model)
     {
 	if (model == null) throw new IllegalArgumentException("Model cannot be null");
 
-        OntModelSpec ontModelSpec = OntModelSpec.OWL_MEM;
-        OntModel tempModel = ModelFactory.createOntologyModel(ontModelSpec);
-        tempModel.add(fixOntModel(getOntModel())).add(model);
-	return SPINConstraints.check(tempModel, null);
+        // union view instead of a copy: the payload is the base graph, the ontology is read-only
+        MultiUnion union = new MultiUnion(new Graph[] { model.getGraph(), getFixedOntModel().getGraph() });
+        union.setBaseGraph(model.getGraph());
+        Model unionModel = ModelFactory.createModelForGraph(union);
+
+        if (!isIndexed() || declaresClasses(model)) return SPINConstraints.check(unionModel, null);
+        
+        List<ConstraintViolation> cvs = new ArrayList<>();
+        Set<Resource> constrained = getConstrainedResources(model);
+        if (constrained.isEmpty()) return cvs;
+        
+        for (Resource resource : constrained)
+            cvs.addAll(SPINConstraints.check(resource.inModel(unionModel), null));
+        
+        return cvs;
+    }
+
+    /**
+     * Returns payload resources that have at least one constrained type.
+     * 
+     * @param model payload
+     * @return set of resources
+     */
+    public Set<Resource> getConstrainedResources(Model model)
+    {
+	if (model == null) throw new IllegalArgumentException("Model cannot be null");
+
+        Set<Resource> resources = new HashSet<>();
+        for (Resource constrainedClass : getConstrainedClasses())
+        {
+            ResIterator it = model.listSubjectsWithProperty(RDF.type, constrainedClass);
+            try
+            {
+                while (it.hasNext()) resources.add(it.next());
+            }
+            finally
+            {
+                it.close();
+            }
+        }
+        
+        return resources;
+    }
+    
+    /**
+     * Returns classes that have <code>spin:constraint</code>s, directly or inherited from superclasses.
+     * 
+     * @param ontModel ontology model
+     * @return set of classes
+     */
+    public final Set<Resource> getConstrainedClasses(OntModel ontModel)
+    {
+	if (ontModel == null) throw new IllegalArgumentException("OntModel cannot be null");
+
+        Set<Resource> classes = new HashSet<>();
+        Deque<Resource> queue = new ArrayDeque<>();
+        ResIterator it = ontModel.listSubjectsWithProperty(SPIN.constraint);
+        try
+        {
+            while (it.hasNext())
+            {
+                Resource constrainedClass = it.next();
+                if (constrainedClass.isURIResource() && classes.add(constrainedClass)) queue.add(constrainedClass);
+            }
+        }
+        finally
+        {
+            it.close();
+        }
+        
+        // subclasses inherit constraints
+        while (!queue.isEmpty())
+        {
+            ResIterator subClassIt = ontModel.listSubjectsWithProperty(RDFS.subClassOf, queue.poll());
+            try
+            {
+                while (subClassIt.hasNext())
+                {
+                    Resource subClass = subClassIt.next();
+                    if (subClass.isURIResource() && classes.add(subClass)) queue.add(subClass);
+                }
+            }
+            finally
+            {
+                subClassIt.close();
+            }
+        }
+        
+        return classes;
     }
+    
+    /**
+     * Returns true if constrained resources can be found using <code>rdf:type</code> and the subclass closure alone.
+     * 
+     * @param ontModel ontology model
+     * @param constrainedClasses constrained URI classes
+     * @return true if indexable
+     */
+    public final boolean isIndexable(OntModel ontModel, Set<Resource> constrainedClasses)
+    {
+	if (ontModel == null) throw new IllegalArgumentException("OntModel cannot be null");
+	if (constrainedClasses == null) throw new IllegalArgumentException("Set<Resource> cannot be null");
 
+        if (constrainedClasses.contains(RDFS.Resource) || constrainedClasses.contains(OWL.Thing)) return false;
+        
+        ResIterator it = ontModel.listSubjectsWithProperty(SPIN.constraint);
+        try
+        {
+            while (it.hasNext())
+                if (it.next().isAnon()) return false;
+        }
+        finally
+        {
+            it.close();
+        }
+
+        for (Resource constrainedClass : constrainedClasses)
+        {
+            if (ontModel.contains(constrainedClass, OWL.equivalentClass) ||
+                    ontModel.contains(null, OWL.equivalentClass, constrainedClass)) return false;
+            
+            ResIterator subClassIt = ontModel.listSubjectsWithProperty(RDFS.subClassOf, constrainedClass);
+            try
+            {
+                while (subClassIt.hasNext())
+                    if (subClassIt.next().isAnon()) return false;
+            }
+            finally
+            {
+                subClassIt.close();
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Returns true if the payload declares class hierarchy, which the constrained class index does not cover.
+     * 
+     * @param model payload
+     * @return true if payload contains <code>rdfs:subClassOf</code> or <code>owl:equivalentClass</code>
+     */
+    public boolean declaresClasses(Model model)
+    {
+        return model.contains(null, RDFS.subClassOf) || model.contains(null, OWL.equivalentClass);
+    }
+    
     // remove additional types from constraints, otherwise SPIN API will not find their queries :/
     // TO-DO: convert constraints from URI resources to bnodes. Otherwise SPINLabels.getLabel() returns corrupt label
-    public OntModel fixOntModel(OntModel ontModel)
+    public final OntModel fixOntModel(OntModel ontModel)
     {
 	if (ontModel == null) throw new IllegalArgumentException("Model cannot be null");
         
@@ -88,4 +259,19 @@ public class Validator
         return ontModel;
     }
 
+    public OntModel getFixedOntModel()
+    {
+        return fixedOntModel;
+    }
+
+    public Set<Resource> getConstrainedClasses()
+    {
+        return constrainedClasses;
+    }
+
+    public boolean isIndexed()
+    {
+        return indexed;
+    }
+
 }
@@ -46,8 +46,28 @@ public class AP
     
     public static final DatatypeProperty cacheSitemap = m_model.createDatatypeProperty( NS + "cacheSitemap" );
 
+    public static final DatatypeProperty watchSitemap = m_model.createDatatypeProperty( NS + "watchSitemap" );
+
     public static final DatatypeProperty sitemapRules = m_model.createDatatypeProperty( NS + "sitemapRules" );
 
     public static final DatatypeProperty locationMapping = m_model.createDatatypeProperty( NS + "locationMapping" );
 
+    public static final DatatypeProperty modelCacheMaxEntries = m_model.createDatatypeProperty( NS + "modelCacheMaxEntries" );
+
+    public static final DatatypeProperty modelCacheMaxTriples = m_model.createDatatypeProperty( NS + "modelCacheMaxTriples" );
+
+    public static final DatatypeProperty modelCacheMaxAge = m_model.createDatatypeProperty( NS + "modelCacheMaxAge" );
+
+    public static final DatatypeProperty maxConcurrentQueries = m_model.createDatatypeProperty( NS + "maxConcurrentQueries" );
+
+    public static final DatatypeProperty queryQueueTimeout = m_model.createDatatypeProperty( NS + "queryQueueTimeout" );
+
+    public static final DatatypeProperty clientConnectTimeout = m_model.createDatatypeProperty( NS + "clientConnectTimeout" );
+
+    public static final DatatypeProperty clientReadTimeout = m_model.createDatatypeProperty( NS + "clientReadTimeout" );
+
+    public static final DatatypeProperty etagIndexMaxEntries = m_model.createDatatypeProperty( NS + "etagIndexMaxEntries" );
+
+    public static final DatatypeProperty etagIndexMaxAge = m_model.createDatatypeProperty( NS + "etagIndexMaxAge" );
+
 }
@@ -63,6 +63,8 @@ public class DH
     public static final DatatypeProperty orderBy = m_model.createDatatypeProperty( NS + "orderBy" );
 
     public static final DatatypeProperty desc = m_model.createDatatypeProperty( NS + "desc" );
+
+    public static final DatatypeProperty after = m_model.createDatatypeProperty( NS + "after" );
     
     public static final DatatypeProperty slug = m_model.createDatatypeProperty( NS + "slug" );
 
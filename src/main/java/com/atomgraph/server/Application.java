@@ -24,6 +24,7 @@ import org.apache.jena.util.FileManager;
 import java.util.HashSet;
 import java.util.Set;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.servlet.ServletConfig;
 import javax.ws.rs.core.Context;
 import org.apache.jena.enhanced.BuiltinPersonalities;
@@ -59,6 +60,19 @@ import com.atomgraph.server.provider.OntologyProvider;
 import com.atomgraph.server.provider.TemplateProvider;
 import com.atomgraph.server.provider.SkolemizingModelProvider;
 import com.atomgraph.server.provider.TemplateCallProvider;
+import com.atomgraph.server.provider.ModelCacheProvider;
+import com.atomgraph.server.provider.BulkheadProvider;
+import com.atomgraph.server.provider.ETagIndexProvider;
+import com.atomgraph.server.provider.InvalidationBusProvider;
+import com.atomgraph.server.util.ApplicationConfig;
+import com.atomgraph.server.util.InvalidationBus;
+import com.atomgraph.server.util.LocalTransport;
+import com.atomgraph.server.util.Bulkhead;
+import com.atomgraph.server.util.ETagIndex;
+import com.atomgraph.server.util.Invalidation;
+import com.atomgraph.server.util.ModelCache;
+import com.atomgraph.server.util.OntologyListener;
+import com.atomgraph.server.util.OntologyWatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spinrdf.arq.ARQFactory;
@@ -68,10 +82,14 @@ import com.atomgraph.processor.vocabulary.LDT;
 import com.atomgraph.server.mapper.ConstraintViolationExceptionMapper;
 import com.atomgraph.server.provider.ApplicationProvider;
 import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.config.ClientConfig;
 import com.sun.jersey.api.client.config.DefaultClientConfig;
 import java.util.List;
 import org.apache.jena.ontology.OntModelSpec;
+import org.apache.jena.ontology.Ontology;
+import java.io.IOException;
 import org.apache.jena.query.Dataset;
+import org.apache.jena.rdf.model.Property;
 import org.apache.jena.reasoner.Reasoner;
 import org.apache.jena.reasoner.rulesys.GenericRuleReasoner;
 import org.apache.jena.reasoner.rulesys.Rule;
@@ -89,6 +107,13 @@ public class Application extends com.atomgraph.core.Application
     private final String ontologyURI;
     private final OntModelSpec ontModelSpec;
     private final boolean cacheSitemap;
+    private final boolean watchSitemap;
+    private final ModelCache modelCache;
+    private final Bulkhead bulkhead;
+    private final ETagIndex etagIndex;
+    private final InvalidationBus invalidationBus;
+    private OntologyProvider ontologyProvider;
+    private OntologyWatcher ontologyWatcher;
     
     /**
      * Initializes root resource classes and provider singletons
@@ -102,13 +127,16 @@ public class Application extends com.atomgraph.core.Application
             servletConfig.getInitParameter(A.graphStore.getURI()) != null ? servletConfig.getInitParameter(A.graphStore.getURI()) : null,
             servletConfig.getInitParameter(org.apache.jena.sparql.engine.http.Service.queryAuthUser.getSymbol()) != null ? servletConfig.getInitParameter(org.apache.jena.sparql.engine.http.Service.queryAuthUser.getSymbol()) : null,
             servletConfig.getInitParameter(org.apache.jena.sparql.engine.http.Service.queryAuthPwd.getSymbol()) != null ? servletConfig.getInitParameter(org.apache.jena.sparql.engine.http.Service.queryAuthPwd.getSymbol()) : null,
-            new MediaTypes(), getClient(new DefaultClientConfig()),
-            servletConfig.getInitParameter(A.maxGetRequestSize.getURI()) != null ? Integer.parseInt(servletConfig.getInitParameter(A.maxGetRequestSize.getURI())) : null,            
+            new MediaTypes(), getClient(getClientConfig(
+                getInteger(servletConfig, AP.clientConnectTimeout, null),
+                getInteger(servletConfig, AP.clientReadTimeout, null))),
+            getInteger(servletConfig, A.maxGetRequestSize, null),
             servletConfig.getInitParameter(A.preemptiveAuth.getURI()) != null ? Boolean.parseBoolean(servletConfig.getInitParameter(A.preemptiveAuth.getURI())) : false,
             getFileManager(new LocationMapper(servletConfig.getInitParameter(AP.locationMapping.getURI()) != null ? servletConfig.getInitParameter(AP.locationMapping.getURI()) : null)),
             servletConfig.getInitParameter(LDT.ontology.getURI()) != null ? servletConfig.getInitParameter(LDT.ontology.getURI()) : null,
             servletConfig.getInitParameter(AP.sitemapRules.getURI()) != null ? servletConfig.getInitParameter(AP.sitemapRules.getURI()) : null,
-            servletConfig.getInitParameter(AP.cacheSitemap.getURI()) != null ? Boolean.valueOf(servletConfig.getInitParameter(AP.cacheSitemap.getURI())) : true
+            servletConfig.getInitParameter(AP.cacheSitemap.getURI()) != null ? Boolean.valueOf(servletConfig.getInitParameter(AP.cacheSitemap.getURI())) : true,
+            getApplicationConfig(servletConfig)
         );       
     }
     
@@ -116,10 +144,22 @@ public class Application extends com.atomgraph.core.Application
             final String authUser, final String authPwd,
             final MediaTypes mediaTypes, final Client client, final Integer maxGetRequestSize, final boolean preemptiveAuth,
             final FileManager fileManager, final String ontologyURI, final String rulesString, boolean cacheSitemap)
+    {
+        this(dataset, endpointURI, graphStoreURI, authUser, authPwd,
+                mediaTypes, client, maxGetRequestSize, preemptiveAuth,
+                fileManager, ontologyURI, rulesString, cacheSitemap, new ApplicationConfig());
+    }
+    
+    public Application(final Dataset dataset, final String endpointURI, final String graphStoreURI,
+            final String authUser, final String authPwd,
+            final MediaTypes mediaTypes, final Client client, final Integer maxGetRequestSize, final boolean preemptiveAuth,
+            final FileManager fileManager, final String ontologyURI, final String rulesString, boolean cacheSitemap,
+            final ApplicationConfig config)
     {
         super(dataset, endpointURI, graphStoreURI, authUser, authPwd,
                 mediaTypes, client, maxGetRequestSize, preemptiveAuth);
         if (fileManager == null) throw new IllegalArgumentException("FileManager be null");
+        if (config == null) throw new IllegalArgumentException("ApplicationConfig cannot be null");
         
         if (ontologyURI == null)
         {
@@ -134,6 +174,13 @@ public class Application extends com.atomgraph.core.Application
         
         this.ontologyURI = ontologyURI;
         this.cacheSitemap = cacheSitemap;
+        this.watchSitemap = config.isWatchSitemap();
+        this.modelCache = config.getModelCache();
+        this.bulkhead = config.getBulkhead();
+        this.etagIndex = config.getETagIndex();
+        this.invalidationBus = new InvalidationBus(new LocalTransport());
+        if (modelCache != null) invalidationBus.addListener(modelCache);
+        if (etagIndex != null) invalidationBus.addListener(etagIndex);
 
         List<Rule> rules = Rule.parseRules(rulesString);
         OntModelSpec rulesSpec = new OntModelSpec(OntModelSpec.OWL_MEM);
@@ -176,15 +223,41 @@ public class Application extends com.atomgraph.core.Application
 
         singletons.add(new ApplicationProvider());
         //singletons.add(new ServiceProvider(getService()));
-        singletons.add(new OntologyProvider(OntDocumentManager.getInstance(), getOntologyURI(), getOntModelSpec(), true));
-        singletons.add(new TemplateProvider());
+        ontologyProvider = new OntologyProvider(OntDocumentManager.getInstance(), getOntologyURI(), getOntModelSpec(), true);
+        TemplateProvider templateProvider = new TemplateProvider(isCacheSitemap());
+        SkolemizingModelProvider skolemizingModelProvider = new SkolemizingModelProvider();
+        ontologyProvider.addListener(templateProvider);
+        ontologyProvider.addListener(skolemizingModelProvider);
+        ontologyProvider.addListener(new OntologyListener()
+        {
+
+            @Override
+            public void prepare(Ontology ontology)
+            {
+            }
+
+            @Override
+            public void reloaded(Ontology ontology)
+            {
+                getInvalidationBus().publish(Invalidation.all()); // cached results might depend on the previous sitemap
+            }
+
+        });
+        if (isCacheSitemap() && isWatchSitemap()) ontologyWatcher = watch(ontologyProvider);
+        
+        singletons.add(ontologyProvider);
+        singletons.add(templateProvider);
         singletons.add(new TemplateCallProvider());
+        singletons.add(new ModelCacheProvider(getModelCache()));
+        singletons.add(new BulkheadProvider(getBulkhead()));
+        singletons.add(new ETagIndexProvider(getETagIndex()));
+        singletons.add(new InvalidationBusProvider(getInvalidationBus()));
         singletons.add(new SPARQLEndpointProvider());
         singletons.add(new GraphStoreProvider());
         singletons.add(new DatasetProvider(getDataset()));
         singletons.add(new SPARQLClientProvider(getSPARQLClient()));
         singletons.add(new GraphStoreClientProvider(getGraphStoreClient()));
-        singletons.add(new SkolemizingModelProvider());
+        singletons.add(skolemizingModelProvider);
         singletons.add(new ResultSetProvider());
         singletons.add(new QueryParamProvider());
         singletons.add(new UpdateRequestReader());
@@ -205,6 +278,198 @@ public class Application extends com.atomgraph.core.Application
         if (log.isTraceEnabled()) log.trace("Application.init() with Classes: {} and Singletons: {}", classes, singletons);
     }
     
+    /**
+     * Starts watching sitemap files, which are reloaded in the background when changed.
+     * 
+     * @param ontologyProvider ontology provider
+     * @return started watcher or null, if the files could not be watched
+     */
+    public OntologyWatcher watch(final OntologyProvider ontologyProvider)
+    {
+        if (ontologyProvider == null) throw new IllegalArgumentException("OntologyProvider cannot be null");
+
+        try
+        {
+            return new OntologyWatcher(ontologyProvider.getFiles(), new Runnable()
+            {
+
+                @Override
+                public void run()
+                {
+                    ontologyProvider.reloadAsync();
+                }
+
+            }).start();
+        }
+        catch (IOException ex)
+        {
+            if (log.isErrorEnabled()) log.error("Could not watch sitemap files", ex);
+            return null;
+        }
+    }
+    
+    /**
+     * Stops the sitemap watcher and the background reload thread, so that they do not keep the webapp classloader
+     * alive after undeployment.
+     */
+    @PreDestroy
+    public void shutdown()
+    {
+        if (ontologyWatcher != null)
+            try
+            {
+                ontologyWatcher.close();
+            }
+            catch (IOException ex)
+            {
+                if (log.isWarnEnabled()) log.warn("Could not close sitemap file watcher", ex);
+            }
+        
+        if (ontologyProvider != null) ontologyProvider.close();
+    }
+    
+    /**
+     * Reads optional processor settings from the servlet init parameters.
+     * 
+     * @param servletConfig servlet config
+     * @return application config
+     */
+    public static ApplicationConfig getApplicationConfig(ServletConfig servletConfig)
+    {
+        if (servletConfig == null) throw new IllegalArgumentException("ServletConfig cannot be null");
+        
+        ApplicationConfig config = new ApplicationConfig().
+            watchSitemap(servletConfig.getInitParameter(AP.watchSitemap.getURI()) != null ? Boolean.parseBoolean(servletConfig.getInitParameter(AP.watchSitemap.getURI())) : false);
+        
+        Integer modelCacheMaxEntries = getInteger(servletConfig, AP.modelCacheMaxEntries, null);
+        if (modelCacheMaxEntries != null) config.modelCache(getModelCache(modelCacheMaxEntries,
+                getLong(servletConfig, AP.modelCacheMaxTriples, Long.MAX_VALUE),
+                getLong(servletConfig, AP.modelCacheMaxAge, 60L)));
+        
+        Integer maxConcurrentQueries = getInteger(servletConfig, AP.maxConcurrentQueries, null);
+        if (maxConcurrentQueries != null) config.bulkhead(getBulkhead(maxConcurrentQueries,
+                getLong(servletConfig, AP.queryQueueTimeout, 1000L)));
+        
+        Integer etagIndexMaxEntries = getInteger(servletConfig, AP.etagIndexMaxEntries, null);
+        if (etagIndexMaxEntries != null) config.etagIndex(getETagIndex(etagIndexMaxEntries,
+                getLong(servletConfig, AP.etagIndexMaxAge, 60L)));
+        
+        return config;
+    }
+    
+    /**
+     * Reads non-negative integer init parameter.
+     * 
+     * @param servletConfig servlet config
+     * @param property parameter property
+     * @param defaultValue value used if the parameter is not set
+     * @return parameter value
+     * @throws ConfigurationException if the value is not a non-negative integer
+     */
+    public static Integer getInteger(ServletConfig servletConfig, Property property, Integer defaultValue)
+    {
+        Long value = getLong(servletConfig, property, defaultValue != null ? Long.valueOf(defaultValue) : null);
+        if (value == null) return null;
+        
+        if (value > Integer.MAX_VALUE)
+        {
+            if (log.isErrorEnabled()) log.error("Init parameter {} value '{}' is too large", property.getURI(), value);
+            throw new ConfigurationException(property);
+        }
+        
+        return value.intValue();
+    }
+
+    /**
+     * Reads non-negative long init parameter.
+     * 
+     * @param servletConfig servlet config
+     * @param property parameter property
+     * @param defaultValue value used if the parameter is not set
+     * @return parameter value
+     * @throws ConfigurationException if the value is not a non-negative integer
+     */
+    public static Long getLong(ServletConfig servletConfig, Property property, Long defaultValue)
+    {
+        if (servletConfig == null) throw new IllegalArgumentException("ServletConfig cannot be null");
+        if (property == null) throw new IllegalArgumentException("Property cannot be null");
+
+        String value = servletConfig.getInitParameter(property.getURI());
+        if (value == null) return defaultValue;
+        
+        try
+        {
+            Long longValue = Long.valueOf(value.trim());
+            if (longValue >= 0) return longValue;
+        }
+        catch (NumberFormatException ex)
+        {
+            // reported below
+        }
+        
+        if (log.isErrorEnabled()) log.error("Init parameter {} value '{}' is not a non-negative integer", property.getURI(), value);
+        throw new ConfigurationException(property);
+    }
+    
+    /**
+     * Creates query result cache.
+     * 
+     * @param maxEntries maximum number of cached results
+     * @param maxTriples maximum total number of cached triples
+     * @param maxAge default max-age of cached results in seconds
+     * @return cache or null, if it is disabled
+     */
+    public static ModelCache getModelCache(int maxEntries, long maxTriples, long maxAge)
+    {
+        if (maxEntries <= 0) return null;
+        
+        return new ModelCache(maxEntries, maxTriples, maxAge);
+    }
+    
+    /**
+     * Creates entity tag index.
+     * 
+     * @param maxEntries maximum number of indexed entity tags
+     * @param maxAge max-age of entity tags in seconds
+     * @return index or null, if it is disabled
+     */
+    public static ETagIndex getETagIndex(int maxEntries, long maxAge)
+    {
+        if (maxEntries <= 0) return null;
+        
+        return new ETagIndex(maxEntries, maxAge);
+    }
+    
+    /**
+     * Creates HTTP client configuration for the SPARQL and Graph Store clients.
+     * Timeouts bound how long a request thread can be blocked by an unresponsive endpoint.
+     * 
+     * @param connectTimeout connect timeout in milliseconds, or null for no timeout
+     * @param readTimeout read timeout in milliseconds, or null for no timeout
+     * @return client config
+     */
+    public static ClientConfig getClientConfig(Integer connectTimeout, Integer readTimeout)
+    {
+        ClientConfig clientConfig = new DefaultClientConfig();
+        if (connectTimeout != null) clientConfig.getProperties().put(ClientConfig.PROPERTY_CONNECT_TIMEOUT, connectTimeout);
+        if (readTimeout != null) clientConfig.getProperties().put(ClientConfig.PROPERTY_READ_TIMEOUT, readTimeout);
+        return clientConfig;
+    }
+    
+    /**
+     * Creates SPARQL concurrency limit.
+     * 
+     * @param maxConcurrent maximum number of concurrent SPARQL round-trips
+     * @param timeout maximum time to wait for a permit in milliseconds
+     * @return bulkhead or null, if it is disabled
+     */
+    public static Bulkhead getBulkhead(int maxConcurrent, long timeout)
+    {
+        if (maxConcurrent <= 0) return null;
+        
+        return new Bulkhead(maxConcurrent, timeout);
+    }
+    
     public static FileManager getFileManager(LocationMapper locationMapper)
     {
         FileManager fileManager = FileManager.get();
@@ -252,4 +517,35 @@ public class Application extends com.atomgraph.core.Application
         return cacheSitemap;
     }
     
+    public final boolean isWatchSitemap()
+    {
+        return watchSitemap;
+    }
+    
+    public ModelCache getModelCache()
+    {
+        return modelCache;
+    }
+    
+    public Bulkhead getBulkhead()
+    {
+        return bulkhead;
+    }
+    
+    public ETagIndex getETagIndex()
+    {
+        return etagIndex;
+    }
+    
+    /**
+     * Returns bus that publishes write events to caches.
+     * Events are delivered in-process by {@link com.atomgraph.server.util.LocalTransport}.
+     * 
+     * @return invalidation bus
+     */
+    public InvalidationBus getInvalidationBus()
+    {
+        return invalidationBus;
+    }
+    
 }
@@ -16,19 +16,38 @@
 
 package com.atomgraph.server.filter.response;
 
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.sparql.core.TriplePath;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.syntax.ElementPathBlock;
+import org.apache.jena.sparql.syntax.ElementSubQuery;
+import org.apache.jena.sparql.syntax.ElementVisitorBase;
+import org.apache.jena.sparql.syntax.ElementWalker;
 import org.apache.jena.vocabulary.RDF;
 import com.sun.jersey.spi.container.ContainerRequest;
 import com.sun.jersey.spi.container.ContainerResponse;
 import com.sun.jersey.spi.container.ContainerResponseFilter;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.ext.Provider;
+import com.atomgraph.processor.query.KeysetCursor;
+import com.atomgraph.processor.query.SubSelectTransform;
 import com.atomgraph.processor.util.TemplateCall;
 import com.atomgraph.processor.vocabulary.C;
 import com.atomgraph.processor.vocabulary.DH;
 import com.atomgraph.server.exception.OntClassNotFoundException;
 import com.atomgraph.server.vocabulary.XHV;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import javax.ws.rs.core.Context;
 import static javax.ws.rs.core.Response.Status.CREATED;
 import static javax.ws.rs.core.Response.Status.Family.REDIRECTION;
@@ -37,8 +56,10 @@ import javax.ws.rs.core.UriInfo;
 import javax.ws.rs.ext.Providers;
 import org.apache.jena.ontology.OntClass;
 import org.apache.jena.rdf.model.ResourceFactory;
+import com.atomgraph.server.util.ProcessingContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.spinrdf.vocabulary.SPIN;
 
 /**
  * A filter that adds HATEOAS transitions to the RDF query result.
@@ -67,7 +88,7 @@ public class HypermediaFilter implements ContainerResponseFilter
                 response.getEntity() == null || (!(response.getEntity() instanceof Model)))
             return response;
         
-        TemplateCall templateCall = getTemplateCall();
+        TemplateCall templateCall = getTemplateCall(request);
         if (templateCall == null) return response;
             
         Resource state = templateCall.build();
@@ -83,7 +104,7 @@ public class HypermediaFilter implements ContainerResponseFilter
                 state.addProperty(DH.pageOf, absolutePath).
                     addProperty(RDF.type, DH.Page); // do we still need dh:Page now that we have core:View?
 
-                addPrevNextPage(templateCall, absolutePath, state);
+                addPrevNextPage(templateCall, absolutePath, state, (Model)response.getEntity());
             }
         }
 
@@ -103,7 +124,237 @@ public class HypermediaFilter implements ContainerResponseFilter
         return response;
     }
         
+    /**
+     * Adds previous/next page links.
+     * If the template supports keyset pagination (has <code>dh:after</code> parameter) and the page is ordered,
+     * the next page link carries the last <code>ORDER BY</code> value and row key in this page as cursor.
+     * Otherwise <code>OFFSET</code>-based links are added.
+     * The next page link is only added if the page is full, i.e. it holds <code>dh:limit</code> rows.
+     * Rows are the values of the first projected variable of the container sub-<code>SELECT</code>, found in the page
+     * through the triple patterns that connect it to <code>?this</code>. If there are no such patterns, the page
+     * is assumed to be full.
+     * 
+     * @param templateCall current template call
+     * @param absolutePath container resource
+     * @param state current page
+     * @param model page result
+     */
+    public void addPrevNextPage(TemplateCall templateCall, Resource absolutePath, Resource state, Model model)
+    {
+        if (templateCall == null) throw new IllegalArgumentException("TemplateCall cannot be null");
+        if (model == null) throw new IllegalArgumentException("Model cannot be null");
+
+        Long limit = templateCall.getArgumentProperty(DH.limit).getLong();
+        ElementSubQuery subSelect = SubSelectTransform.getSubSelect(templateCall.getTemplate().getQuery(getUriInfo().getBaseUri()));
+        Var keyVar = subSelect != null ? SubSelectTransform.getKeyVar(subSelect.getQuery()) : null;
+        Map<Node, Node> rows = keyVar != null ? getValues(subSelect, keyVar, keyVar, absolutePath, model) : null;
+        boolean full = rows == null || rows.size() >= limit;
+        if (log.isDebugEnabled()) log.debug("Page has {} rows, LIMIT is {}", rows != null ? rows.size() : "unknown number of", limit);
+        
+        if (templateCall.getTemplate().getParameters().containsKey(DH.after) && templateCall.hasArgument(DH.orderBy) && rows != null)
+        {
+            Var orderBy = Var.alloc(templateCall.getArgumentProperty(DH.orderBy).getString());
+            Map<Node, Node> values = getValues(subSelect, keyVar, orderBy, absolutePath, model);
+            if (values != null)
+            {
+                values.keySet().retainAll(rows.keySet()); // the container's own values are not rows
+                
+                boolean desc = false;
+                if (templateCall.hasArgument(DH.desc)) desc = templateCall.getArgumentProperty(DH.desc).getBoolean();
+                
+                KeysetCursor cursor = getCursor(values, !orderBy.equals(keyVar), desc);
+                if (cursor == null || !cursor.getValue().isBlank())
+                {
+                    if (full && cursor != null) addNextPage(templateCall, absolutePath, state, cursor);
+                    // no cursor means empty page, which is the last one
+                    return;
+                }
+                
+                if (log.isDebugEnabled()) log.debug("ORDER BY variable {} has blank node values, using OFFSET pagination", orderBy);
+            }
+            else
+                if (log.isDebugEnabled()) log.debug("ORDER BY variable {} cannot be read from the page, using OFFSET pagination", orderBy);
+        }
+        
+        addPrevNextPage(templateCall, absolutePath, state, full);
+    }
+    
+    public void addNextPage(TemplateCall templateCall, Resource absolutePath, Resource state, KeysetCursor cursor)
+    {
+        if (cursor == null) throw new IllegalArgumentException("KeysetCursor cannot be null");
+
+        com.atomgraph.core.util.StateBuilder nextBuilder = TemplateCall.fromResource(state);
+        Resource next = nextBuilder.replaceProperty(DH.after, ResourceFactory.createTypedLiteral(cursor.toString())).
+                build().
+                addProperty(DH.pageOf, absolutePath).
+                addProperty(RDF.type, DH.Page).
+                addProperty(XHV.prev, state);
+
+        if (log.isDebugEnabled()) log.debug("Adding page metadata: {} xhv:next {}", state, next);
+        state.addProperty(XHV.next, next);
+    }
+    
+    /**
+     * Returns values of a sub-<code>SELECT</code> variable in the page result, mapped to the row keys.
+     * Values are read through the triple patterns of the sub-query: if the variable is the key variable,
+     * <code>?key &lt;p&gt; ?this</code> or <code>?this &lt;p&gt; ?key</code>; otherwise <code>?key &lt;p&gt; ?var</code>.
+     * 
+     * @param subSelect container sub-query
+     * @param keyVar row key variable
+     * @param var variable
+     * @param absolutePath container resource
+     * @param model page result
+     * @return row key/value map, or null if there are no patterns to read the values through
+     */
+    public Map<Node, Node> getValues(ElementSubQuery subSelect, Var keyVar, Var var, Resource absolutePath, Model model)
+    {
+        if (subSelect == null) throw new IllegalArgumentException("ElementSubQuery cannot be null");
+        if (keyVar == null) throw new IllegalArgumentException("Key Var cannot be null");
+        if (var == null) throw new IllegalArgumentException("Var cannot be null");
+        if (absolutePath == null) throw new IllegalArgumentException("Resource cannot be null");
+        if (model == null) throw new IllegalArgumentException("Model cannot be null");
+
+        List<Triple> patterns = getPatterns(subSelect, keyVar, var);
+        if (patterns.isEmpty()) return null;
+        
+        Map<Node, Node> values = new HashMap<>();
+        for (Triple pattern : patterns)
+        {
+            Property property = model.createProperty(pattern.getPredicate().getURI());
+            boolean isSubject = pattern.getSubject().equals(var); // ?key <p> ?this
+            boolean isObject = !isSubject && pattern.getSubject().equals(keyVar) && !var.equals(keyVar); // ?key <p> ?var
+            StmtIterator it;
+            if (isSubject) it = model.listStatements(null, property, absolutePath);
+            else if (isObject) it = model.listStatements(null, property, (RDFNode)null);
+            else it = model.listStatements(absolutePath, property, (RDFNode)null); // ?this <p> ?key
+            
+            try
+            {
+                while (it.hasNext())
+                {
+                    Statement stmt = it.next();
+                    if (isSubject) values.put(stmt.getSubject().asNode(), stmt.getSubject().asNode());
+                    else if (isObject)
+                    {
+                        Node row = stmt.getSubject().asNode(), value = stmt.getObject().asNode();
+                        // multi-valued rows are ordered by their last value
+                        if (!values.containsKey(row) || compare(values.get(row), value) < 0) values.put(row, value);
+                    }
+                    else values.put(stmt.getObject().asNode(), stmt.getObject().asNode());
+                }
+            }
+            finally
+            {
+                it.close();
+            }
+        }
+        
+        return values;
+    }
+    
+    /**
+     * Returns triple patterns of the container sub-<code>SELECT</code> through which the values of the variable
+     * can be found in the result.
+     * 
+     * @param subSelect container sub-query
+     * @param keyVar row key variable
+     * @param var variable
+     * @return list of triple patterns
+     * @see #getValues(org.apache.jena.sparql.syntax.ElementSubQuery, org.apache.jena.sparql.core.Var, org.apache.jena.sparql.core.Var, org.apache.jena.rdf.model.Resource, org.apache.jena.rdf.model.Model)
+     */
+    public List<Triple> getPatterns(ElementSubQuery subSelect, final Var keyVar, final Var var)
+    {
+        final List<Triple> patterns = new ArrayList<>();
+        final Var thisVar = Var.alloc(SPIN.THIS_VAR_NAME);
+        
+        ElementWalker.walk(subSelect.getQuery().getQueryPattern(), new ElementVisitorBase()
+        {
+            
+            @Override
+            public void visit(ElementPathBlock el)
+            {
+                for (TriplePath path : el.getPattern().getList())
+                    if (path.isTriple() && path.getPredicate().isURI())
+                    {
+                        if (var.equals(keyVar))
+                        {
+                            if ((path.getSubject().equals(var) && path.getObject().equals(thisVar)) ||
+                                    (path.getSubject().equals(thisVar) && path.getObject().equals(var)))
+                                patterns.add(path.asTriple());
+                        }
+                        else
+                            if (path.getSubject().equals(keyVar) && path.getObject().equals(var))
+                                patterns.add(path.asTriple());
+                    }
+            }
+            
+        });
+        
+        return patterns;
+    }
+    
+    /**
+     * Returns cursor of the last row in the page: the greatest (or least, if the order is descending)
+     * value and row key.
+     * 
+     * @param values row key/value map
+     * @param tieBreaker true if the row key is a tie-breaker, false if the value is the key
+     * @param desc true if order is descending
+     * @return cursor or null, if the page has no rows
+     */
+    public KeysetCursor getCursor(Map<Node, Node> values, boolean tieBreaker, boolean desc)
+    {
+        Node lastRow = null, lastValue = null;
+        for (Map.Entry<Node, Node> entry : values.entrySet())
+        {
+            int diff = 0;
+            if (lastRow != null)
+            {
+                diff = compare(entry.getValue(), lastValue);
+                if (diff == 0) diff = compare(entry.getKey(), lastRow);
+                if (desc) diff = -diff;
+            }
+            
+            if (lastRow == null || diff > 0)
+            {
+                lastRow = entry.getKey();
+                lastValue = entry.getValue();
+            }
+        }
+        
+        if (lastRow == null) return null;
+        return new KeysetCursor(lastValue, tieBreaker ? lastRow : null);
+    }
+    
+    /**
+     * Compares RDF terms the same way as the keyset <code>FILTER</code>: IRIs by their string form.
+     * 
+     * @param node1 first term
+     * @param node2 second term
+     * @return comparison result
+     * @see com.atomgraph.processor.query.SubSelectTransform
+     */
+    public static int compare(Node node1, Node node2)
+    {
+        if (node1.isURI() && node2.isURI()) return node1.getURI().compareTo(node2.getURI());
+        
+        return NodeValue.compareAlways(NodeValue.makeNode(node1), NodeValue.makeNode(node2));
+    }
+    
     public void addPrevNextPage(TemplateCall templateCall, Resource absolutePath, Resource state)
+    {
+        addPrevNextPage(templateCall, absolutePath, state, true);
+    }
+    
+    /**
+     * Adds <code>OFFSET</code>-based previous/next page links.
+     * 
+     * @param templateCall current template call
+     * @param absolutePath container resource
+     * @param state current page
+     * @param full true if the page holds <code>dh:limit</code> rows, i.e. there might be a next page
+     */
+    public void addPrevNextPage(TemplateCall templateCall, Resource absolutePath, Resource state, boolean full)
     {
         if (templateCall == null) throw new IllegalArgumentException("TemplateCall cannot be null");
         if (absolutePath == null) throw new IllegalArgumentException("Resource cannot be null");
@@ -126,6 +377,8 @@ public class HypermediaFilter implements ContainerResponseFilter
             state.addProperty(XHV.prev, prev);
         }
 
+        if (!full) return; // last page
+        
         com.atomgraph.core.util.StateBuilder nextBuilder = TemplateCall.fromResource(state);
         Resource next = nextBuilder.replaceProperty(DH.offset, ResourceFactory.createTypedLiteral(offset + limit)).
                 build().
@@ -143,6 +396,20 @@ public class HypermediaFilter implements ContainerResponseFilter
         return new ConstructorBase().construct(forClass, targetModel);
     }
 
+    /**
+     * Returns template call of the request, as bound by the template call provider.
+     * 
+     * @param request current request
+     * @return template call or null
+     */
+    public TemplateCall getTemplateCall(ContainerRequest request)
+    {
+        TemplateCall templateCall = ProcessingContext.get(request.getProperties()).getTemplateCall();
+        if (templateCall != null) return templateCall;
+        
+        return getTemplateCall();
+    }
+    
     public TemplateCall getTemplateCall()
     {
         if (!getUriInfo().getMatchedResources().isEmpty())
@@ -16,20 +16,13 @@
 
 package com.atomgraph.server.mapper;
 
-import com.atomgraph.core.util.Link;
 import com.atomgraph.processor.exception.ConstraintViolationException;
-import com.atomgraph.processor.util.RulePrinter;
-import com.atomgraph.processor.vocabulary.LDT;
-import java.net.URI;
-import java.util.List;
+import com.atomgraph.server.util.RulesHeader;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.ext.ExceptionMapper;
 import org.apache.jena.rdf.model.ResIterator;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.ResourceFactory;
-import org.apache.jena.reasoner.Reasoner;
-import org.apache.jena.reasoner.rulesys.GenericRuleReasoner;
-import org.apache.jena.reasoner.rulesys.Rule;
 import org.apache.jena.vocabulary.RDF;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -68,23 +61,14 @@ public class ConstraintViolationExceptionMapper extends ExceptionMapperBase impl
             it.close();
         }
         
-        Link classLink = new Link(URI.create(getStateBuilder().getTemplate().getURI()), RDF.type.getLocalName(), null);
-        Link ontologyLink = new Link(URI.create(getOntology().getURI()), LDT.ontology.getURI(), null);
-        Link baseUriLink = new Link(getUriInfo().getBaseUri(), LDT.baseUri.getURI(), null); // LDT.baseUri?
-        
         Response.ResponseBuilder builder = com.atomgraph.core.model.impl.Response.fromRequest(getRequest()).
             getResponseBuilder(ex.getModel(), getVariants()).
-                status(Response.Status.BAD_REQUEST).
-                header("Link", classLink.toString()).
-                header("Link", ontologyLink.toString()).
-                header("Link", baseUriLink.toString());
+                status(Response.Status.BAD_REQUEST);
+        for (String link : getStateBuilder().getTemplate().getLinks(getOntology().getURI(), getUriInfo().getBaseUri()))
+            builder.header("Link", link);
 
-        Reasoner reasoner = getOntology().getOntModel().getSpecification().getReasoner();
-        if (reasoner instanceof GenericRuleReasoner)
-        {
-            List<Rule> rules = ((GenericRuleReasoner)reasoner).getRules();
-            builder.header("Rules", RulePrinter.print(rules));
-        }
+        RulesHeader rules = RulesHeader.get(getOntology().getOntModel().getSpecification().getReasoner());
+        if (rules != null) rules.apply(builder, getHttpHeaders());
         
         return builder.build();
     }
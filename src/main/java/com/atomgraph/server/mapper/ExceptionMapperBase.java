@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
@@ -50,6 +51,7 @@ abstract public class ExceptionMapperBase
     @Context private Request request;
     @Context private Providers providers;
     @Context private UriInfo uriInfo;
+    @Context private HttpHeaders httpHeaders;
     
     public Resource toResource(Exception ex, Response.Status status, Resource statusResource)
     {
@@ -132,4 +134,9 @@ abstract public class ExceptionMapperBase
         return uriInfo;
     }
     
+    public HttpHeaders getHttpHeaders()
+    {
+        return httpHeaders;
+    }
+    
 }
\ No newline at end of file
@@ -20,36 +20,45 @@ import com.atomgraph.core.MediaTypes;
 import org.apache.jena.ontology.*;
 import org.apache.jena.query.*;
 import org.apache.jena.rdf.model.*;
-import org.apache.jena.reasoner.Reasoner;
-import org.apache.jena.reasoner.rulesys.GenericRuleReasoner;
+import org.apache.jena.sparql.ARQException;
+import org.apache.jena.sparql.syntax.ElementSubQuery;
 import org.apache.jena.sparql.util.Loader;
 import org.apache.jena.update.UpdateRequest;
 import org.apache.jena.vocabulary.RDF;
 import com.sun.jersey.api.core.ResourceContext;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import javax.ws.rs.Path;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.*;
 import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.ext.Providers;
 import com.atomgraph.core.exception.NotFoundException;
 import com.atomgraph.core.model.GraphStore;
 import com.atomgraph.core.model.SPARQLEndpoint;
 import com.atomgraph.processor.query.QueryBuilder;
-import com.atomgraph.processor.update.InsertDataBuilder;
-import com.atomgraph.core.util.Link;
-import com.atomgraph.processor.vocabulary.LDT;
+import com.atomgraph.processor.update.InsertDataStream;
 import com.atomgraph.core.model.impl.QueriedResourceBase;
 import com.atomgraph.core.util.ModelUtils;
 import com.atomgraph.processor.exception.OntologyException;
-import com.atomgraph.processor.model.Template;
 import com.atomgraph.processor.query.SelectBuilder;
+import com.atomgraph.processor.query.KeysetCursor;
+import com.atomgraph.processor.query.SubSelectTransform;
 import com.atomgraph.processor.update.ModifyBuilder;
-import com.atomgraph.processor.util.RulePrinter;
+import com.atomgraph.processor.util.SolutionBinder;
 import com.atomgraph.processor.util.TemplateCall;
 import com.atomgraph.processor.vocabulary.DH;
 import com.atomgraph.processor.vocabulary.DHT;
+import com.atomgraph.server.provider.OntologyProvider;
+import com.atomgraph.server.util.Bulkhead;
+import com.atomgraph.server.util.ETagIndex;
+import com.atomgraph.server.provider.SingletonProvider;
+import com.atomgraph.server.util.Invalidation;
+import com.atomgraph.server.util.InvalidationBus;
+import com.atomgraph.server.util.ModelCache;
+import com.atomgraph.server.util.RulesHeader;
 import javax.annotation.PostConstruct;
 import org.apache.jena.sparql.vocabulary.FOAF;
 import org.slf4j.Logger;
@@ -72,14 +81,17 @@ import org.spinrdf.vocabulary.SPIN;
 public class ResourceBase extends QueriedResourceBase implements com.atomgraph.server.model.Resource
 {
     private static final Logger log = LoggerFactory.getLogger(ResourceBase.class);
+    
+    @Context Providers providers;
         
     private final com.atomgraph.processor.model.Application application;
     private final Ontology ontology;    
     private final TemplateCall templateCall;
-    private final OntResource ontResource;
+    private OntResource ontResource;
     private final ResourceContext resourceContext;
     private final HttpHeaders httpHeaders;  
     private final QuerySolutionMap querySolutionMap;
+    private Query query;
     private QueryBuilder queryBuilder;
     private ModifyBuilder modifyBuilder;
 
@@ -130,15 +142,14 @@ public class ResourceBase extends QueriedResourceBase implements com.atomgraph.s
         if (httpHeaders == null) throw new IllegalArgumentException("HttpHeaders cannot be null");
         if (resourceContext == null) throw new IllegalArgumentException("ResourceContext cannot be null");
 
-        // we are not making permanent changes to base ontology because OntologyProvider always makes a copy
+        // the ontology is a snapshot shared between requests and is not modified here
         this.application = application;
         this.ontology = ontology;
-        this.ontResource = ontology.getOntModel().createOntResource(getURI().toString());
         this.templateCall = templateCall;
         this.httpHeaders = httpHeaders;
         this.resourceContext = resourceContext;
         this.querySolutionMap = templateCall.getQuerySolutionMap();
-        this.querySolutionMap.add(SPIN.THIS_VAR_NAME, ontResource); // ?this
+        this.querySolutionMap.add(SPIN.THIS_VAR_NAME, ResourceFactory.createResource(getURI().toString())); // ?this
 
         if (log.isDebugEnabled()) log.debug("Constructing ResourceBase with matched Template: {}", templateCall.getTemplate());
     }
@@ -153,16 +164,12 @@ public class ResourceBase extends QueriedResourceBase implements com.atomgraph.s
             modifyBuilder = getTemplateCall().getTemplate().getModifyBuilder(getUriInfo().getBaseUri(), ModelFactory.createDefaultModel());
         else
         {
-            queryBuilder = getTemplateCall().getTemplate().getQueryBuilder(getUriInfo().getBaseUri(), ModelFactory.createDefaultModel());
+            // parsed query is cached by the template
+            query = getTemplateCall().getTemplate().getQuery(getUriInfo().getBaseUri());
             
-            if (getTemplateCall().getTemplate().getOntModel().createResource(DHT.Container.getURI()).canAs(Template.class))
-            {
-                // apply LIMIT/OFFSET/ORDER BY pagination if this template is a sub-template of dh:Container
-                Template containerTemplate = getTemplateCall().getTemplate().getOntModel().
-                        createResource(DHT.Container.getURI()).as(Template.class);
-                if (getTemplateCall().getTemplate().hasSuperTemplate(containerTemplate))
-                    queryBuilder = getPageQueryBuilder(queryBuilder);
-            }
+            // apply LIMIT/OFFSET/ORDER BY pagination if this template is a sub-template of dh:Container
+            if (getTemplateCall().getTemplate().hasSuperTemplate(DHT.Container.getURI()))
+                query = getPageQuery(query);
         }
     }
     
@@ -209,7 +216,265 @@ public class ResourceBase extends QueriedResourceBase implements com.atomgraph.s
             return Response.seeOther(URI.create(getTemplateCall().getURI())).build();
         }
         
-        return super.get();
+        // conditional requests are answered from the entity tag index, without loading the model.
+        // Entity tags are per variant, so the variant is negotiated first; if none is acceptable, 406 is returned as usual
+        ETagIndex etagIndex = getETagIndex();
+        Variant variant = etagIndex != null ? getRequest().selectVariant(getModelVariants()) : null;
+        if (variant != null)
+        {
+            EntityTag entityTag = etagIndex.get(getTemplateCall().getURI(), variant);
+            if (entityTag != null)
+            {
+                Response.ResponseBuilder rb = getRequest().evaluatePreconditions(entityTag);
+                if (rb != null)
+                {
+                    if (log.isDebugEnabled()) log.debug("Preconditions evaluated using indexed entity tag: {}", entityTag);
+                    CacheControl cacheControl = getCacheControl();
+                    if (cacheControl != null) rb.cacheControl(cacheControl);
+                    return addTemplateHeaders(rb).build();
+                }
+            }
+        }
+        
+        ModelCache modelCache = getModelCache();
+        if (modelCache == null && etagIndex == null) return super.get();
+        
+        // generations are read before loading, so that states loaded concurrently with a write are not kept
+        long cacheGeneration = modelCache != null ? modelCache.getGeneration() : 0;
+        long indexGeneration = etagIndex != null ? etagIndex.getGeneration() : 0;
+        
+        // query results are cached per application state
+        Model model = modelCache != null ? modelCache.get(getTemplateCall().getURI()) : null;
+        if (model == null)
+        {
+            model = describe();
+            if (model.isEmpty())
+            {
+                if (log.isDebugEnabled()) log.debug("Query result Model is empty; returning 404 Not Found");
+                throw new NotFoundException("Query result Model is empty");
+            }
+            
+            if (modelCache != null) modelCache.put(getURI().toString(), getTemplateCall().getURI(), model, getCacheMaxAge(), cacheGeneration);
+        }
+        
+        Response response = getResponse(model);
+        // the indexed entity tag has to be the one that is actually sent
+        EntityTag entityTag = getEntityTag(response);
+        if (variant != null && entityTag != null) etagIndex.put(getURI().toString(), getTemplateCall().getURI(), variant, entityTag, indexGeneration);
+        
+        return response;
+    }
+    
+    /**
+     * Loads RDF description of this resource from the SPARQL endpoint.
+     * The round-trip is subject to the SPARQL concurrency limit, if it is configured.
+     * 
+     * @return description model
+     */
+    @Override
+    public Model describe()
+    {
+        Bulkhead bulkhead = getBulkhead();
+        if (bulkhead == null) return super.describe();
+        
+        bulkhead.acquire();
+        try
+        {
+            return super.describe();
+        }
+        finally
+        {
+            bulkhead.release();
+        }
+    }
+    
+    /**
+     * Returns entity tag of the model, computed from its hash.
+     * 
+     * @param model RDF model
+     * @return entity tag
+     */
+    public EntityTag getEntityTag(Model model)
+    {
+	if (model == null) throw new IllegalArgumentException("Model cannot be null");
+
+        return new EntityTag(Long.toHexString(ModelUtils.hashModel(model)));
+    }
+    
+    /**
+     * Returns true if the request has preconditions that refer to entity tags or modification dates.
+     * 
+     * @return true if there are preconditions
+     */
+    public boolean hasPreconditions()
+    {
+        MultivaluedMap<String, String> headers = getHttpHeaders().getRequestHeaders();
+        return headers.containsKey(HttpHeaders.IF_MATCH) || headers.containsKey(HttpHeaders.IF_NONE_MATCH) ||
+                headers.containsKey(HttpHeaders.IF_UNMODIFIED_SINCE);
+    }
+    
+    /**
+     * Evaluates preconditions of a write against the stored state, using the entity tag which the state is sent with
+     * in response to GET.
+     * 
+     * @param stored stored state
+     * @return response builder if the preconditions are not met, or null
+     */
+    public ResponseBuilder evaluatePreconditions(Model stored)
+    {
+	if (stored == null) throw new IllegalArgumentException("Model cannot be null");
+
+        Response response = getResponse(stored);
+        // the response is built for this request, so its preconditions might have been evaluated already
+        if (response.getStatus() == Response.Status.PRECONDITION_FAILED.getStatusCode() ||
+                response.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode())
+            return Response.status(Response.Status.PRECONDITION_FAILED);
+        
+        EntityTag entityTag = getEntityTag(response);
+        if (entityTag == null) entityTag = getEntityTag(stored); // e.g. no acceptable variant
+        return getRequest().evaluatePreconditions(entityTag);
+    }
+    
+    /**
+     * Returns the variants the description can be written as, built the same way as by the exception mappers.
+     * 
+     * @return variant list
+     */
+    public List<Variant> getModelVariants()
+    {
+        MediaTypes mediaTypes = SingletonProvider.getContext(getProviders(), MediaTypes.class);
+        return com.atomgraph.core.model.impl.Response.fromRequest(getRequest()).
+            getVariantListBuilder(mediaTypes.getWritable(Model.class), getLanguages(), new ArrayList<String>()).
+            add().build();
+    }
+    
+    /**
+     * Returns entity tag of the response, as set in its <code>ETag</code> header.
+     * 
+     * @param response HTTP response
+     * @return entity tag or null, if there is none
+     */
+    public EntityTag getEntityTag(Response response)
+    {
+	if (response == null) throw new IllegalArgumentException("Response cannot be null");
+
+        Object entityTag = response.getMetadata().getFirst(HttpHeaders.ETAG);
+        if (entityTag == null) return null;
+        if (entityTag instanceof EntityTag) return (EntityTag)entityTag;
+        
+        return EntityTag.valueOf(entityTag.toString());
+    }
+    
+    /**
+     * Checks whether this resource has a description in the SPARQL endpoint, using an <code>ASK</code> query.
+     * Cheaper than <code>describe()</code> when the description itself is not needed.
+     * If there is no existence query, falls back to checking whether the <code>describe()</code> result is empty.
+     * The round-trip is subject to the SPARQL concurrency limit, if it is configured.
+     * 
+     * @return true if the resource exists
+     * @see #getExistsQuery()
+     */
+    public boolean exists()
+    {
+        Query existsQuery = getExistsQuery();
+        if (existsQuery == null) return !describe().isEmpty();
+        
+        Query query = getQuery(existsQuery, getQuerySolutionMap());
+        if (log.isDebugEnabled()) log.debug("Checking existence of resource {} using ASK query: {}", getURI(), query);
+        
+        Bulkhead bulkhead = getBulkhead();
+        if (bulkhead != null) bulkhead.acquire();
+        try
+        {
+            return getSPARQLEndpoint().ask(query);
+        }
+        finally
+        {
+            if (bulkhead != null) bulkhead.release();
+        }
+    }
+    
+    /**
+     * Returns existence query. <code>?this</code> is bound to the resource URI.
+     * The <code>ASK</code> query reuses the <code>WHERE</code> pattern and dataset of the template's query, so that
+     * descriptions stored in named graphs are found as well.
+     * Returns null if the template's query has no <code>WHERE</code> pattern (e.g. <code>DESCRIBE ?this</code>).
+     * 
+     * @return <code>ASK</code> query or null
+     */
+    public Query getExistsQuery()
+    {
+        Query templateQuery = getTemplateCall().getTemplate().getQuery(getUriInfo().getBaseUri());
+        if (templateQuery.getQueryPattern() == null) return null;
+        
+        // the template query is cached, therefore a new query is built instead of modifying it
+        Query existsQuery = new Query();
+        existsQuery.setQueryAskType();
+        existsQuery.setPrefixMapping(templateQuery.getPrefixMapping());
+        if (templateQuery.getBaseURI() != null) existsQuery.setBaseURI(templateQuery.getBaseURI());
+        for (String graphURI : templateQuery.getGraphURIs()) existsQuery.addGraphURI(graphURI);
+        for (String namedGraphURI : templateQuery.getNamedGraphURIs()) existsQuery.addNamedGraphURI(namedGraphURI);
+        existsQuery.setQueryPattern(templateQuery.getQueryPattern());
+        return existsQuery;
+    }
+    
+    /**
+     * Executes update on the SPARQL endpoint and publishes the affected resources for invalidation.
+     * The round-trip is subject to the SPARQL concurrency limit, if it is configured.
+     * 
+     * @param request update request
+     */
+    public void execute(UpdateRequest request)
+    {
+	if (request == null) throw new IllegalArgumentException("UpdateRequest cannot be null");
+
+        Bulkhead bulkhead = getBulkhead();
+        if (bulkhead != null) bulkhead.acquire();
+        try
+        {
+            getSPARQLEndpoint().post(request, null, null);
+        }
+        finally
+        {
+            if (bulkhead != null) bulkhead.release();
+        }
+        
+        invalidate(request);
+    }
+    
+    /**
+     * Returns the max-age of cached query results of this resource.
+     * Results are not cached if the template's cache control forbids it.
+     * 
+     * @return max-age in seconds, or -1 if not specified
+     */
+    public int getCacheMaxAge()
+    {
+        CacheControl cacheControl = getCacheControl();
+        if (cacheControl == null) return -1;
+        if (cacheControl.isNoCache() || cacheControl.isNoStore()) return 0;
+        
+        return cacheControl.getMaxAge();
+    }
+    
+    /**
+     * Publishes the resources affected by an executed update, so that caches can invalidate them.
+     * 
+     * @param request executed update
+     */
+    public void invalidate(UpdateRequest request)
+    {
+        if (getInvalidationBus() != null) getInvalidationBus().publish(request);
+    }
+
+    /**
+     * Publishes invalidation event, so that caches can invalidate affected resources.
+     * 
+     * @param invalidation invalidation event
+     */
+    public void invalidate(Invalidation invalidation)
+    {
+        if (getInvalidationBus() != null) getInvalidationBus().publish(invalidation);
     }
     
     public boolean isDefaultState()
@@ -249,13 +514,13 @@ public class ResourceBase extends QueriedResourceBase implements com.atomgraph.s
 	}
 
         UpdateRequest insertDataRequest;
-	if (graphURI != null) insertDataRequest = InsertDataBuilder.fromData(graphURI, infModel.getRawModel()).build();
-	else insertDataRequest = InsertDataBuilder.fromData(infModel.getRawModel()).build();
+	if (graphURI != null) insertDataRequest = InsertDataStream.fromData(graphURI, infModel.getRawModel());
+	else insertDataRequest = InsertDataStream.fromData(infModel.getRawModel());
 
         insertDataRequest.setBaseURI(getUriInfo().getBaseUri().toString());
         if (log.isDebugEnabled()) log.debug("INSERT DATA request: {}", insertDataRequest);
 
-        getSPARQLEndpoint().post(insertDataRequest, null, null);
+        execute(insertDataRequest);
 	
 	URI createdURI = UriBuilder.fromUri(created.getURI()).build();
 	if (log.isDebugEnabled()) log.debug("Redirecting to POSTed Resource URI: {}", createdURI);
@@ -302,30 +567,36 @@ public class ResourceBase extends QueriedResourceBase implements com.atomgraph.s
 	if (model == null) throw new IllegalArgumentException("Model cannot be null");
 	if (log.isDebugEnabled()) log.debug("PUT Model: {}", model);
 
-	if (!model.containsResource(getOntResource()))
+	if (!model.containsResource(ResourceFactory.createResource(getURI().toString())))
 	{
 	    if (log.isDebugEnabled()) log.debug("PUT Model does not contain statements with request URI '{}' as subject", getURI());
 	    throw new WebApplicationException(Response.Status.BAD_REQUEST);
 	}
 	
-	Model description = describe();	
+	// preconditions refer to the stored state. An indexed entity tag means the state has been loaded and not changed
+	// since, so it exists; otherwise existence is checked, and the description is only loaded if there are preconditions
+	ETagIndex etagIndex = getETagIndex();
+	Variant variant = etagIndex != null ? getRequest().selectVariant(getModelVariants()) : null;
+	EntityTag entityTag = variant != null ? etagIndex.get(getTemplateCall().getURI(), variant) : null;
+	boolean exists = entityTag != null || exists();
 	
-	if (!description.isEmpty()) // remove existing representation
+	if (exists) // remove existing representation
 	{
-	    EntityTag entityTag = new EntityTag(Long.toHexString(ModelUtils.hashModel(model)));
-	    Response.ResponseBuilder rb = getRequest().evaluatePreconditions(entityTag);
+	    Response.ResponseBuilder rb = null;
+	    if (entityTag != null) rb = getRequest().evaluatePreconditions(entityTag);
+	    else if (hasPreconditions()) rb = evaluatePreconditions(describe());
 	    if (rb != null)
 	    {
-		if (log.isDebugEnabled()) log.debug("PUT preconditions were not met for resource: {} with entity tag: {}", this, entityTag);
+		if (log.isDebugEnabled()) log.debug("PUT preconditions were not met for resource: {}", this);
 		return rb.build();
 	    }
         }
         
         UpdateRequest deleteInsertRequest = getUpdateRequest(model);
         if (log.isDebugEnabled()) log.debug("DELETE/INSERT UpdateRequest: {}", deleteInsertRequest);
-        getSPARQLEndpoint().post(deleteInsertRequest, null, null);
+        execute(deleteInsertRequest);
         
-	if (description.isEmpty()) return Response.created(getURI()).build();
+	if (!exists) return Response.created(getURI()).build();
 	else return getResponse(model);
     }
 
@@ -340,7 +611,7 @@ public class ResourceBase extends QueriedResourceBase implements com.atomgraph.s
     {	
         UpdateRequest request = getUpdateRequest((Model)null);
         if (log.isDebugEnabled()) log.debug("DELETE UpdateRequest: {}", request);
-        getSPARQLEndpoint().post(request, null, null);
+        execute(request);
 	
 	return Response.noContent().build();
     }
@@ -369,21 +640,26 @@ public class ResourceBase extends QueriedResourceBase implements com.atomgraph.s
         
         //rb.header("Query", getQuery().toString());
         
-        Link classLink = new Link(URI.create(getTemplateCall().getTemplate().getURI()), RDF.type.getLocalName(), null);
-        rb.header("Link", classLink.toString());
-        
-        Link ontologyLink = new Link(URI.create(getApplication().getOntology().getURI()), LDT.ontology.getURI(), null);
-        rb.header("Link", ontologyLink.toString());
+        return addTemplateHeaders(rb);
+    }
+    
+    /**
+     * Adds the <pre>Link</pre> and <pre>Rules</pre> headers of the matched template.
+     * They do not depend on the representation, so conditional responses built without a model get them as well.
+     * 
+     * @param rb response builder
+     * @return response builder
+     */
+    public ResponseBuilder addTemplateHeaders(ResponseBuilder rb)
+    {
+	if (rb == null) throw new IllegalArgumentException("ResponseBuilder cannot be null");
 
-        Link baseLink = new Link(getUriInfo().getBaseUri(), LDT.baseUri.getURI(), null);
-        rb.header("Link", baseLink.toString());
+        // template type, ontology and base URI links are rendered once per template
+        for (String link : getTemplateCall().getTemplate().getLinks(getApplication().getOntology().getURI(), getUriInfo().getBaseUri()))
+            rb.header("Link", link);
         
-        Reasoner reasoner = getTemplateCall().getTemplate().getOntModel().getSpecification().getReasoner();
-        if (reasoner instanceof GenericRuleReasoner)
-        {
-            GenericRuleReasoner grr = (GenericRuleReasoner)reasoner;
-            rb.header("Rules", RulePrinter.print(grr.getRules())); // grr.getRules().toString() - prevented by JENA-1030 bug
-        }
+        RulesHeader rules = RulesHeader.get(getTemplateCall().getTemplate().getOntModel().getSpecification().getReasoner());
+        if (rules != null) rules.apply(rb, getHttpHeaders());
         
         return rb;
     }
@@ -396,11 +672,15 @@ public class ResourceBase extends QueriedResourceBase implements com.atomgraph.s
         
     /**
      * Returns this resource as ontology resource.
+     * The resource is created in an overlay of the sitemap ontology, so that changes to it do not affect other requests.
      * 
      * @return ontology resource
      */
     public OntResource getOntResource()
     {
+        if (ontResource == null)
+            ontResource = OntologyProvider.createOverlay(getOntology()).getOntModel().createOntResource(getURI().toString());
+        
 	return ontResource;
     }
 
@@ -438,9 +718,74 @@ public class ResourceBase extends QueriedResourceBase implements com.atomgraph.s
     @Override
     public Query getQuery()
     {
-        return getQuery(getQueryBuilder().build().toString(), getQuerySolutionMap(), getUriInfo().getBaseUri().toString());
+        // query builder is only used if it was requested, otherwise the parsed query is used directly
+        if (queryBuilder != null) return getQuery(getQueryBuilder().build(), getQuerySolutionMap());
+        
+        if (query == null) query = getTemplateCall().getTemplate().getQuery(getUriInfo().getBaseUri());
+        return getQuery(query, getQuerySolutionMap());
+    }
+
+    /**
+     * Applies pagination arguments (<code>dh:offset</code>, <code>dh:limit</code>, <code>dh:orderBy</code>, <code>dh:desc</code>)
+     * to the first sub-<code>SELECT</code> of the query.
+     * 
+     * @param query container query
+     * @return paginated query copy
+     */
+    public Query getPageQuery(Query query)
+    {
+	if (query == null) throw new IllegalArgumentException("Query cannot be null");
+        
+        ElementSubQuery subSelect = SubSelectTransform.getSubSelect(query);
+        if (subSelect == null)
+        {
+            if (log.isErrorEnabled()) log.error("Query '{}' does not contain a sub-SELECT", query);
+            throw new OntologyException("Sub-SELECT missing in Query: " + query + "'");
+        }
+        if (log.isDebugEnabled()) log.debug("Found main sub-SELECT of the query: {}", subSelect);
+        
+        SubSelectTransform transform = new SubSelectTransform(subSelect);
+        if (getTemplateCall().hasArgument(DH.after)) // keyset pagination replaces OFFSET
+            transform.after(getCursor(getTemplateCall().getArgumentProperty(DH.after).getString()));
+        else
+            if (getTemplateCall().hasArgument(DH.offset))
+                transform.offset(getTemplateCall().getArgumentProperty(DH.offset).getLong());
+        if (getTemplateCall().hasArgument(DH.limit))
+            transform.limit(getTemplateCall().getArgumentProperty(DH.limit).getLong());
+        if (getTemplateCall().hasArgument(DH.orderBy))
+        {
+            boolean desc = false; // ORDERY BY is ASC() by default
+            if (getTemplateCall().hasArgument(DH.desc))
+                desc = getTemplateCall().getArgumentProperty(DH.desc).getBoolean();
+            
+            transform.orderBy(getTemplateCall().getArgumentProperty(DH.orderBy).getString(), desc);
+        }
+        
+        return transform.apply(query);
     }
+    
+    /**
+     * Parses keyset cursor. The cursor is the last <code>ORDER BY</code> value and optionally the last row key,
+     * as RDF terms in N-Triples syntax. Other values are treated as plain strings.
+     * 
+     * @param cursor cursor string
+     * @return keyset cursor
+     */
+    public KeysetCursor getCursor(String cursor)
+    {
+	if (cursor == null) throw new IllegalArgumentException("Cursor String cannot be null");
 
+        return KeysetCursor.parse(cursor);
+    }
+    
+    /**
+     * Applies pagination to the SPIN representation of the query.
+     * 
+     * @param builder query builder
+     * @return query builder
+     * @deprecated pagination is applied to the parsed query instead, see {@link #getPageQuery(org.apache.jena.query.Query)}
+     */
+    @Deprecated
     public QueryBuilder getPageQueryBuilder(QueryBuilder builder)
     {
 	if (builder == null) throw new IllegalArgumentException("QueryBuilder cannot be null");
@@ -507,6 +852,28 @@ public class ResourceBase extends QueriedResourceBase implements com.atomgraph.s
         return new ParameterizedSparqlString(command, qsm, baseUri).asQuery();        
     }
 
+    /**
+     * Binds variables of a parsed query. Falls back to string substitution if the query cannot be bound in its syntax tree.
+     * 
+     * @param query parsed query, which is not modified
+     * @param qsm query solution map to be applied
+     * @return bound query
+     */
+    public Query getQuery(Query query, QuerySolutionMap qsm)
+    {
+	if (query == null) throw new IllegalArgumentException("Query cannot be null");
+
+        try
+        {
+            return SolutionBinder.bind(query, qsm);
+        }
+        catch (ARQException ex)
+        {
+            if (log.isDebugEnabled()) log.debug("Could not bind Query in syntax tree, falling back to ParameterizedSparqlString", ex);
+            return getQuery(query.toString(), qsm, getUriInfo().getBaseUri().toString());
+        }
+    }
+    
     /**
      * Returns query builder, which is used to build SPARQL query to retrieve RDF description of this resource.
      * 
@@ -514,7 +881,9 @@ public class ResourceBase extends QueriedResourceBase implements com.atomgraph.s
      */
     @Override
     public QueryBuilder getQueryBuilder()
-    {        
+    {
+        if (queryBuilder == null && query != null) queryBuilder = QueryBuilder.fromQuery(query, ModelFactory.createDefaultModel());
+        
 	return queryBuilder;
     }
 
@@ -548,11 +917,31 @@ public class ResourceBase extends QueriedResourceBase implements com.atomgraph.s
     public UpdateRequest getUpdateRequest(Model model)
     {
         if (model != null && !model.isEmpty())
-            return new ParameterizedSparqlString(getModifyBuilderWithData(getModifyBuilder(), model).build().toString(),
-                    getQuerySolutionMap(), getUriInfo().getBaseUri().toString()).asUpdate();
+            return getUpdateRequest(getModifyBuilderWithData(getModifyBuilder(), model).build(), getQuerySolutionMap());
             
-        return new ParameterizedSparqlString(getModifyBuilder().build().toString(),
-                getQuerySolutionMap(), getUriInfo().getBaseUri().toString()).asUpdate();
+        return getUpdateRequest(getModifyBuilder().build(), getQuerySolutionMap());
+    }
+    
+    /**
+     * Binds variables of a parsed update. Falls back to string substitution if the update cannot be bound in its syntax tree.
+     * 
+     * @param request parsed update request
+     * @param qsm query solution map to be applied
+     * @return bound update request
+     */
+    public UpdateRequest getUpdateRequest(UpdateRequest request, QuerySolutionMap qsm)
+    {
+	if (request == null) throw new IllegalArgumentException("UpdateRequest cannot be null");
+
+        try
+        {
+            return SolutionBinder.bind(request, qsm);
+        }
+        catch (ARQException ex)
+        {
+            if (log.isDebugEnabled()) log.debug("Could not bind UpdateRequest in syntax tree, falling back to ParameterizedSparqlString", ex);
+            return new ParameterizedSparqlString(request.toString(), qsm, getUriInfo().getBaseUri().toString()).asUpdate();
+        }
     }
     
     /**
@@ -569,6 +958,51 @@ public class ResourceBase extends QueriedResourceBase implements com.atomgraph.s
     {
         return resourceContext;
     }
+    
+    /**
+     * Returns query result cache.
+     * 
+     * @return cache or null, if it is not configured
+     */
+    public ModelCache getModelCache()
+    {
+        return SingletonProvider.getContext(getProviders(), ModelCache.class);
+    }
+    
+    /**
+     * Returns SPARQL concurrency limit.
+     * 
+     * @return bulkhead or null, if it is not configured
+     */
+    public Bulkhead getBulkhead()
+    {
+        return SingletonProvider.getContext(getProviders(), Bulkhead.class);
+    }
+    
+    /**
+     * Returns entity tag index.
+     * 
+     * @return index or null, if it is not configured
+     */
+    public ETagIndex getETagIndex()
+    {
+        return SingletonProvider.getContext(getProviders(), ETagIndex.class);
+    }
+    
+    /**
+     * Returns bus which publishes write events to caches.
+     * 
+     * @return invalidation bus or null, if it is not configured
+     */
+    public InvalidationBus getInvalidationBus()
+    {
+        return SingletonProvider.getContext(getProviders(), InvalidationBus.class);
+    }
+    
+    public Providers getProviders()
+    {
+        return providers;
+    }
  
     @Override
     public com.atomgraph.processor.model.Application getApplication()
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2016 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.server.provider;
+
+import com.atomgraph.server.util.ETagIndex;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Entity tag index provider.
+ * Provides null if the index is not configured.
+ *
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ * @see com.atomgraph.server.util.ETagIndex
+ */
+@Provider
+public class ETagIndexProvider extends SingletonProvider<ETagIndex>
+{
+
+    public ETagIndexProvider(ETagIndex etagIndex)
+    {
+        super(ETagIndex.class, etagIndex);
+    }
+
+    public ETagIndex getETagIndex()
+    {
+        return getInstance();
+    }
+
+}
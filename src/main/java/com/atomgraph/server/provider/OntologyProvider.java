@@ -25,8 +25,26 @@ import org.apache.jena.util.iterator.ExtendedIterator;
 import com.sun.jersey.core.spi.component.ComponentContext;
 import com.sun.jersey.spi.inject.Injectable;
 import com.sun.jersey.spi.inject.PerRequestTypeInjectableProvider;
+import com.atomgraph.server.util.OntologyListener;
+import com.atomgraph.server.util.ProcessingContext;
+import com.atomgraph.server.util.VirtualThreads;
+import com.sun.jersey.api.core.HttpContext;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.ext.ContextResolver;
 import javax.ws.rs.ext.Provider;
@@ -39,8 +57,15 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Application ontology provider.
+ * The sitemap ontology is loaded once and the same read-only snapshot is shared by all requests,
+ * unless the ontology document manager is not caching models, in which case it is reloaded on every request.
+ * Requests that need to change the ontology should use an overlay instead of the snapshot.
+ * The snapshot can be reloaded at runtime: the new ontology is loaded and materialized in the background,
+ * listeners compile their per-sitemap structures, and then the snapshot reference is swapped.
+ * Requests in flight keep using the snapshot they started with.
  * 
  * @author Martynas Jusevičius <martynas@atomgraph.com>
+ * @see #reload()
  */
 @Provider
 public class OntologyProvider extends PerRequestTypeInjectableProvider<Context, Ontology> implements ContextResolver<Ontology>
@@ -48,9 +73,15 @@ public class OntologyProvider extends PerRequestTypeInjectableProvider<Context,
     private static final Logger log = LoggerFactory.getLogger(OntologyProvider.class);
     
     @Context Providers providers;
+    @Context HttpContext httpContext;
 
+    private final OntDocumentManager manager;
     private final OntModelSpec ontModelSpec;
     private final String ontologyURI;
+    private final boolean materialize;
+    private final List<OntologyListener> listeners = new CopyOnWriteArrayList<>();
+    private final ExecutorService reloadExecutor;
+    private volatile Ontology ontology;
     
     public OntologyProvider(OntDocumentManager manager, String ontologyURI, OntModelSpec ontModelSpec, boolean materialize)
     {
@@ -60,17 +91,31 @@ public class OntologyProvider extends PerRequestTypeInjectableProvider<Context,
         if (ontologyURI == null) throw new IllegalArgumentException("URI cannot be null");
         if (ontModelSpec == null) throw new IllegalArgumentException("OntModelSpec cannot be null");
         
+        this.manager = manager;
         this.ontologyURI = ontologyURI;
         this.ontModelSpec = ontModelSpec;
+        this.materialize = materialize;
+        this.reloadExecutor = VirtualThreads.newSingleThreadExecutor("ontology-reload");
         
+        this.ontology = load();
+    }
+    
+    /**
+     * Loads the sitemap ontology through the document manager.
+     * If materialization is enabled, inferences are materialized to avoid invoking rules engine on every request.
+     * 
+     * @return ontology snapshot, or null if the document manager is not caching models
+     */
+    protected final Ontology load()
+    {
         // materialize OntModel inferences to avoid invoking rules engine on every request
-        if (materialize && ontModelSpec.getReasoner() != null)
+        if (isMaterialize() && getOntModelSpec().getReasoner() != null)
         {
-            OntModel infModel = getOntModel(OntDocumentManager.getInstance(), ontologyURI, ontModelSpec);
-            Ontology ontology = infModel.getOntology(ontologyURI);
+            OntModel infModel = getOntModel(getOntDocumentManager(), getOntologyURI(), getOntModelSpec());
+            Ontology inferred = infModel.getOntology(getOntologyURI());
 
             ImportCycleChecker checker = new ImportCycleChecker();
-            checker.check(ontology);
+            checker.check(inferred);
             if (checker.getCycleOntology() != null)
             {
                 if (log.isErrorEnabled()) log.error("Sitemap contains an ontology which forms an import cycle: {}", checker.getCycleOntology());
@@ -79,10 +124,143 @@ public class OntologyProvider extends PerRequestTypeInjectableProvider<Context,
             
             OntModel materializedModel = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM);
             materializedModel.add(infModel);
-            manager.addModel(ontologyURI, materializedModel, true);
+            getOntDocumentManager().addModel(getOntologyURI(), materializedModel, true);
         }
+        
+        if (getOntDocumentManager().getCacheModels()) return loadOntology();
+        
+        return null;
     }
-                
+    
+    /**
+     * Reloads the sitemap ontology from its documents and swaps it in.
+     * Listeners are prepared with the new ontology before the swap. If loading fails, the current ontology is kept.
+     * Has no effect if the document manager is not caching models, since the ontology is then loaded on every request.
+     * 
+     * @return reloaded ontology, or null if it was not reloaded
+     */
+    public synchronized Ontology reload()
+    {
+        if (!getOntDocumentManager().getCacheModels()) return null;
+        if (log.isInfoEnabled()) log.info("Reloading sitemap ontology: {}", getOntologyURI());
+
+        Ontology reloaded;
+        try
+        {
+            getOntDocumentManager().clearCache(); // documents have to be read again
+            reloaded = load();
+            
+            for (OntologyListener listener : listeners)
+                listener.prepare(reloaded);
+        }
+        catch (RuntimeException ex)
+        {
+            if (log.isErrorEnabled()) log.error("Could not reload sitemap ontology, keeping the current one", ex);
+            return null;
+        }
+        
+        ontology = reloaded;
+        
+        for (OntologyListener listener : listeners)
+            try
+            {
+                listener.reloaded(reloaded);
+            }
+            catch (RuntimeException ex)
+            {
+                if (log.isErrorEnabled()) log.error("Ontology listener failed", ex);
+            }
+        
+        if (log.isInfoEnabled()) log.info("Reloaded sitemap ontology: {}", getOntologyURI());
+        return reloaded;
+    }
+
+    /**
+     * Reloads the sitemap ontology in the background.
+     * 
+     * @return future of the reloaded ontology
+     * @see #reload()
+     */
+    public Future<Ontology> reloadAsync()
+    {
+        return reloadExecutor.submit(new Callable<Ontology>()
+        {
+
+            @Override
+            public Ontology call()
+            {
+                return reload();
+            }
+
+        });
+    }
+    
+    /**
+     * Stops the background reload thread. Called when the application is destroyed.
+     */
+    public void close()
+    {
+        reloadExecutor.shutdownNow();
+    }
+    
+    public void addListener(OntologyListener listener)
+    {
+        if (listener == null) throw new IllegalArgumentException("OntologyListener cannot be null");
+        listeners.add(listener);
+    }
+
+    public void removeListener(OntologyListener listener)
+    {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Returns files of the sitemap ontology and its imports, as mapped by the document manager.
+     * Documents that are not mapped to local files (e.g. remote or packaged in a JAR) are skipped.
+     * 
+     * @return file paths
+     */
+    public Set<Path> getFiles()
+    {
+        Set<Path> files = new HashSet<>();
+        Ontology current = getOntology();
+        
+        Set<String> uris = new HashSet<>(current.getOntModel().listImportedOntologyURIs(true));
+        uris.add(getOntologyURI());
+        for (String uri : uris)
+        {
+            Path file = getFile(getOntDocumentManager().doAltURLMapping(uri));
+            if (file != null) files.add(file);
+        }
+        
+        return files;
+    }
+    
+    protected Path getFile(String location)
+    {
+        if (location == null) return null;
+        
+        try
+        {
+            URL url;
+            if (location.startsWith("file:")) url = new URL(location);
+            else
+            {
+                Path path = Paths.get(location);
+                if (Files.isRegularFile(path)) return path;
+                url = getClass().getClassLoader().getResource(location); // location relative to the classpath
+            }
+
+            if (url != null && url.getProtocol().equals("file")) return Paths.get(url.toURI());
+        }
+        catch (MalformedURLException | URISyntaxException | InvalidPathException | IllegalArgumentException ex)
+        {
+            if (log.isDebugEnabled()) log.debug("Sitemap document location '{}' is not a local file", location);
+        }
+        
+        return null;
+    }
+    
     public class ImportCycleChecker
     {
         private final Map<Ontology, Boolean> marked = new HashMap<>(), onStack = new HashMap<>();
@@ -137,7 +315,7 @@ public class OntologyProvider extends PerRequestTypeInjectableProvider<Context,
 	    @Override
 	    public Ontology getValue()
 	    {
-                return getOntology();
+                return getRequestOntology();
 	    }
 	};
     }
@@ -145,12 +323,57 @@ public class OntologyProvider extends PerRequestTypeInjectableProvider<Context,
     @Override
     public Ontology getContext(Class<?> type)
     {
-        return getOntology();
+        return getRequestOntology();
+    }
+    
+    /**
+     * Returns the sitemap ontology snapshot of the current request.
+     * The snapshot is taken once and kept in the request processing context, so that a reload does not affect
+     * the requests in flight.
+     * 
+     * @return sitemap ontology
+     */
+    public Ontology getRequestOntology()
+    {
+        ProcessingContext context = getProcessingContext();
+        if (context.getOntology() == null) context.setOntology(getOntology());
+        
+        return context.getOntology();
     }
     
+    /**
+     * Returns the sitemap ontology snapshot. It is shared between requests and must not be modified.
+     * 
+     * @return sitemap ontology
+     * @see #createOverlay(org.apache.jena.ontology.Ontology)
+     */
     public Ontology getOntology()
-    {        
-        return getOntModel(OntDocumentManager.getInstance(), getOntologyURI(), OntModelSpec.OWL_MEM).getOntology(getOntologyURI());
+    {
+        Ontology current = ontology;
+        if (current != null) return current;
+        
+        return loadOntology();
+    }
+    
+    public final Ontology loadOntology()
+    {
+        return getOntModel(getOntDocumentManager(), getOntologyURI(), OntModelSpec.OWL_MEM).getOntology(getOntologyURI());
+    }
+    
+    /**
+     * Creates a writable overlay of the sitemap ontology.
+     * Changes made to the overlay are kept in a separate model and do not affect the shared snapshot.
+     * 
+     * @param ontology sitemap ontology
+     * @return ontology in the overlay model
+     */
+    public static Ontology createOverlay(Ontology ontology)
+    {
+        if (ontology == null) throw new IllegalArgumentException("Ontology cannot be null");
+        
+        return ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM,
+                ModelFactory.createUnion(ModelFactory.createDefaultModel(), ontology.getOntModel().getBaseModel())).
+            getOntology(ontology.getURI());
     }
     
     /**
@@ -194,6 +417,16 @@ public class OntologyProvider extends PerRequestTypeInjectableProvider<Context,
         }
     }
 
+    public OntDocumentManager getOntDocumentManager()
+    {
+        return manager;
+    }
+    
+    public boolean isMaterialize()
+    {
+        return materialize;
+    }
+    
     public String getOntologyURI()
     {
         return ontologyURI;
@@ -209,4 +442,14 @@ public class OntologyProvider extends PerRequestTypeInjectableProvider<Context,
         return providers;
     }
     
+    public HttpContext getHttpContext()
+    {
+        return httpContext;
+    }
+    
+    public ProcessingContext getProcessingContext()
+    {
+        return ProcessingContext.get(getHttpContext().getProperties());
+    }
+    
 }
\ No newline at end of file
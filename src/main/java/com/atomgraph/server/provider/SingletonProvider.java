@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.server.provider;
+
+import com.sun.jersey.core.spi.component.ComponentContext;
+import com.sun.jersey.spi.inject.Injectable;
+import com.sun.jersey.spi.inject.PerRequestTypeInjectableProvider;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.Providers;
+
+/**
+ * Provider of an application-wide optional component, such as a cache.
+ * Provides null if the component is not configured.
+ * Subclasses only bind the type parameter, which Jersey needs to resolve the <code>ContextResolver</code> type.
+ *
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ * @param <T> component type
+ */
+public abstract class SingletonProvider<T> extends PerRequestTypeInjectableProvider<Context, T> implements ContextResolver<T>
+{
+
+    private final T instance;
+
+    public SingletonProvider(Class<T> type, T instance)
+    {
+        super(type);
+        this.instance = instance;
+    }
+
+    /**
+     * Looks up component using its context resolver.
+     * 
+     * @param <T> component type
+     * @param providers providers
+     * @param type component class
+     * @return component or null, if it is not configured
+     */
+    public static <T> T getContext(Providers providers, Class<T> type)
+    {
+        if (type == null) throw new IllegalArgumentException("Class cannot be null");
+        if (providers == null) return null;
+        
+        ContextResolver<T> cr = providers.getContextResolver(type, null);
+        if (cr == null) return null;
+        
+        return cr.getContext(type);
+    }
+    
+    @Override
+    public Injectable<T> getInjectable(ComponentContext cc, Context context)
+    {
+	return new Injectable<T>()
+	{
+	    @Override
+	    public T getValue()
+	    {
+                return getInstance();
+	    }
+	};
+    }
+
+    @Override
+    public T getContext(Class<?> type)
+    {
+        return getInstance();
+    }
+
+    public T getInstance()
+    {
+        return instance;
+    }
+
+}
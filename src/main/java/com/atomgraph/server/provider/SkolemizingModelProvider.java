@@ -19,12 +19,18 @@ package com.atomgraph.server.provider;
 import org.apache.jena.ontology.OntClass;
 import org.apache.jena.ontology.Ontology;
 import org.apache.jena.rdf.model.Model;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
 import javax.ws.rs.ext.ContextResolver;
 import com.atomgraph.processor.exception.SkolemizationException;
+import com.atomgraph.processor.model.Template;
+import com.atomgraph.processor.util.SkolemizationPlan;
 import com.atomgraph.processor.util.Skolemizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,6 +46,8 @@ public class SkolemizingModelProvider extends ValidatingModelProvider
     @Context private Request request;
     @Context private UriInfo uriInfo;
     
+    private volatile SkolemizationPlan plan, preparedPlan;
+    
     @Override
     public Model process(Model model)
     {
@@ -54,7 +62,7 @@ public class SkolemizingModelProvider extends ValidatingModelProvider
     {
         try
         {
-            return new Skolemizer(ontology, baseUriBuilder, absolutePathBuilder).build(model);
+            return new Skolemizer(getSkolemizationPlan(ontology), baseUriBuilder, absolutePathBuilder, getLanguages()).build(model);
         }
         catch (IllegalArgumentException ex)
         {
@@ -62,6 +70,60 @@ public class SkolemizingModelProvider extends ValidatingModelProvider
         }        
     }
 
+    /**
+     * Returns skolemization plan for the sitemap ontology. The plan is compiled once and reused until the ontology changes.
+     * 
+     * @param ontology sitemap ontology
+     * @return skolemization plan
+     */
+    public SkolemizationPlan getSkolemizationPlan(Ontology ontology)
+    {
+        if (ontology == null) throw new IllegalArgumentException("Ontology cannot be null");
+
+        SkolemizationPlan current = plan;
+        if (current == null || current.getOntology() != ontology)
+        {
+            SkolemizationPlan prepared = preparedPlan;
+            if (prepared != null && prepared.getOntology() == ontology) current = prepared;
+            else current = new SkolemizationPlan(ontology);
+            plan = current;
+        }
+        
+        return current;
+    }
+
+    @Override
+    public void prepare(Ontology ontology)
+    {
+        super.prepare(ontology);
+        preparedPlan = new SkolemizationPlan(ontology);
+    }
+
+    @Override
+    public void reloaded(Ontology ontology)
+    {
+        super.reloaded(ontology);
+        getSkolemizationPlan(ontology);
+        preparedPlan = null;
+    }
+    
+    /**
+     * Returns the languages of the matched template (<code>ldt:lang</code>), in which URI template values are preferred.
+     * 
+     * @return language tags, most preferred first
+     */
+    public List<String> getLanguages()
+    {
+        ContextResolver<Template> cr = getProviders().getContextResolver(Template.class, null);
+        Template template = cr != null ? cr.getContext(Template.class) : null;
+        if (template == null) return Collections.emptyList();
+        
+        List<String> languages = new ArrayList<>();
+        for (Locale locale : template.getLanguages())
+            languages.add(locale.toLanguageTag());
+        return languages;
+    }
+    
     public OntClass getOntClass()
     {
 	ContextResolver<OntClass> cr = getProviders().getContextResolver(OntClass.class, null);
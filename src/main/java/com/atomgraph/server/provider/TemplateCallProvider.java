@@ -17,6 +17,8 @@ package com.atomgraph.server.provider;
 
 import com.atomgraph.processor.model.Template;
 import com.atomgraph.processor.util.TemplateCall;
+import com.atomgraph.server.util.ProcessingContext;
+import com.sun.jersey.api.core.HttpContext;
 import com.sun.jersey.core.spi.component.ComponentContext;
 import com.sun.jersey.spi.inject.Injectable;
 import com.sun.jersey.spi.inject.PerRequestTypeInjectableProvider;
@@ -30,7 +32,8 @@ import javax.ws.rs.ext.Providers;
 import org.apache.jena.rdf.model.ModelFactory;
 
 /**
- *
+ * Template call provider.
+ * 
  * @author Martynas Jusevičius <martynas@atomgraph.com>
  */
 @Provider
@@ -39,6 +42,7 @@ public class TemplateCallProvider extends PerRequestTypeInjectableProvider<Conte
 
     @Context Providers providers;
     @Context UriInfo uriInfo;
+    @Context HttpContext httpContext;
     
     public TemplateCallProvider()
     {
@@ -64,12 +68,24 @@ public class TemplateCallProvider extends PerRequestTypeInjectableProvider<Conte
         return getTemplateCall();
     }
     
+    /**
+     * Returns template call of the request. Arguments are bound once per request, the result is kept in the
+     * request processing context.
+     * 
+     * @return template call or null, if no template matched
+     */
     public TemplateCall getTemplateCall()
     {
-        if (getTemplate() != null)
-            return getTemplateCall(getTemplate(), getUriInfo().getAbsolutePath(), getUriInfo().getQueryParameters());
+        ProcessingContext context = getProcessingContext();
+        if (context.getTemplateCall() == null)
+        {
+            Template template = getTemplate();
+            if (template == null) return null;
+            
+            context.setTemplateCall(getTemplateCall(template, getUriInfo().getAbsolutePath(), getUriInfo().getQueryParameters()));
+        }
         
-        return null;
+        return context.getTemplateCall();
     }
     
     public TemplateCall getTemplateCall(Template template, URI absolutePath, MultivaluedMap<String, String> queryParams)
@@ -78,13 +94,11 @@ public class TemplateCallProvider extends PerRequestTypeInjectableProvider<Conte
         if (absolutePath == null) throw new IllegalArgumentException("URI cannot be null");
         if (queryParams == null) throw new IllegalArgumentException("MultivaluedMap cannot be null");
 
-        TemplateCall templateCall = TemplateCall.fromUri(absolutePath.toString(), ModelFactory.createDefaultModel(), template).
+        // the state resource is built lazily, by the hypermedia layer
+        return TemplateCall.fromUri(absolutePath.toString(), ModelFactory.createDefaultModel(), template).
             applyArguments(queryParams). // apply URL query parameters
             applyDefaults().
             validateOptionals(); // validate (non-)optional arguments
-        templateCall.build(); // build state URI
-        
-        return templateCall;
     }
     
     public Template getTemplate()
@@ -102,4 +116,14 @@ public class TemplateCallProvider extends PerRequestTypeInjectableProvider<Conte
         return uriInfo;
     }
     
+    public HttpContext getHttpContext()
+    {
+        return httpContext;
+    }
+    
+    public ProcessingContext getProcessingContext()
+    {
+        return ProcessingContext.get(getHttpContext().getProperties());
+    }
+    
 }
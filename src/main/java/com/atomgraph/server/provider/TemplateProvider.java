@@ -26,6 +26,9 @@ import javax.ws.rs.core.UriInfo;
 import javax.ws.rs.ext.ContextResolver;
 import javax.ws.rs.ext.Providers;
 import com.atomgraph.processor.util.TemplateMatcher;
+import com.atomgraph.server.util.OntologyListener;
+import com.atomgraph.server.util.ProcessingContext;
+import com.sun.jersey.api.core.HttpContext;
 import javax.ws.rs.ext.Provider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,17 +38,33 @@ import org.slf4j.LoggerFactory;
  * @author Martynas Jusevičius <martynas@atomgraph.com>
  */
 @Provider
-public class TemplateProvider extends PerRequestTypeInjectableProvider<Context, Template> implements ContextResolver<Template>
+public class TemplateProvider extends PerRequestTypeInjectableProvider<Context, Template> implements ContextResolver<Template>, OntologyListener
 {
 
     private static final Logger log = LoggerFactory.getLogger(TemplateProvider.class);
 
     @Context UriInfo uriInfo;    
     @Context Providers providers;
+    @Context HttpContext httpContext;
+    
+    private final boolean cacheSitemap;
+    private volatile TemplateMatcher templateMatcher, preparedMatcher;
     
     public TemplateProvider()
+    {
+        this(true);
+    }
+    
+    /**
+     * Constructs provider.
+     * If the sitemap is not cached, every request gets a new ontology instance, so the routing index is not built.
+     * 
+     * @param cacheSitemap true if the sitemap ontology is cached
+     */
+    public TemplateProvider(boolean cacheSitemap)
     {
         super(Template.class);
+        this.cacheSitemap = cacheSitemap;
     }
     
     @Override
@@ -67,14 +86,71 @@ public class TemplateProvider extends PerRequestTypeInjectableProvider<Context,
         return getTemplate();
     }
 
+    /**
+     * Returns template matching the request URI. Matching is done once per request, the result is kept in the
+     * request processing context.
+     * 
+     * @return matched template or null
+     */
     public Template getTemplate()
     {
-        return getTemplate(getOntology(), getUriInfo());
+        ProcessingContext context = getProcessingContext();
+        if (!context.isTemplateMatched()) context.setTemplate(getTemplate(getOntology(), getUriInfo()));
+        
+        return context.getTemplate();
     }
 
     public Template getTemplate(Ontology ontology, UriInfo uriInfo)
     {
-        return new TemplateMatcher(ontology).match(uriInfo.getAbsolutePath(), uriInfo.getBaseUri());
+        return getTemplateMatcher(ontology).match(uriInfo.getAbsolutePath(), uriInfo.getBaseUri());
+    }
+    
+    /**
+     * Returns routing index for the given sitemap ontology.
+     * The index is reused as long as the same sitemap snapshot is provided.
+     * If the sitemap is not cached, an unindexed matcher is returned instead.
+     * 
+     * @param ontology sitemap ontology
+     * @return template matcher
+     */
+    public TemplateMatcher getTemplateMatcher(Ontology ontology)
+    {
+        if (ontology == null) throw new IllegalArgumentException("Ontology cannot be null");
+        if (!isCacheSitemap()) return new TemplateMatcher(ontology, false);
+        
+        TemplateMatcher matcher = templateMatcher;
+        if (matcher == null || matcher.getOntology() != ontology)
+        {
+            TemplateMatcher prepared = preparedMatcher;
+            if (prepared != null && prepared.getOntology() == ontology) matcher = prepared;
+            else matcher = new TemplateMatcher(ontology);
+            templateMatcher = matcher;
+        }
+        
+        return matcher;
+    }
+
+    /**
+     * Compiles routing index of the reloaded ontology before it is swapped in.
+     * 
+     * @param ontology reloaded ontology
+     */
+    @Override
+    public void prepare(Ontology ontology)
+    {
+        if (isCacheSitemap()) preparedMatcher = new TemplateMatcher(ontology);
+    }
+
+    @Override
+    public void reloaded(Ontology ontology)
+    {
+        getTemplateMatcher(ontology);
+        preparedMatcher = null;
+    }
+    
+    public boolean isCacheSitemap()
+    {
+        return cacheSitemap;
     }
     
     public UriInfo getUriInfo()
@@ -92,4 +168,14 @@ public class TemplateProvider extends PerRequestTypeInjectableProvider<Context,
         return providers;
     }
     
+    public HttpContext getHttpContext()
+    {
+        return httpContext;
+    }
+    
+    public ProcessingContext getProcessingContext()
+    {
+        return ProcessingContext.get(getHttpContext().getProperties());
+    }
+    
 }
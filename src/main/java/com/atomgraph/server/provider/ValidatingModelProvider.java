@@ -31,6 +31,7 @@ import javax.ws.rs.ext.Providers;
 import com.atomgraph.core.io.ModelProvider;
 import com.atomgraph.processor.exception.ConstraintViolationException;
 import com.atomgraph.processor.util.Validator;
+import com.atomgraph.server.util.OntologyListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spinrdf.constraints.ConstraintViolation;
@@ -39,12 +40,14 @@ import org.spinrdf.constraints.ConstraintViolation;
  *
  * @author Martynas Jusevičius <martynas@atomgraph.com>
  */
-public class ValidatingModelProvider extends ModelProvider
+public class ValidatingModelProvider extends ModelProvider implements OntologyListener
 {
     private static final Logger log = LoggerFactory.getLogger(ValidatingModelProvider.class);
     
     @Context private Providers providers;    
     
+    private volatile Validator validator, preparedValidator;
+    
     @Override
     public Model readFrom(Class<Model> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException
     {
@@ -58,7 +61,7 @@ public class ValidatingModelProvider extends ModelProvider
     
     public Model validate(Model model)
     {
-        List<ConstraintViolation> cvs = new Validator(getOntology().getOntModel()).validate(model);
+        List<ConstraintViolation> cvs = getValidator(getOntology()).validate(model);
         
 	if (!cvs.isEmpty())
         {
@@ -69,6 +72,46 @@ public class ValidatingModelProvider extends ModelProvider
         return model;
     }
         
+    /**
+     * Returns validator for the sitemap ontology. Constraints are compiled once and reused until the ontology changes.
+     * 
+     * @param ontology sitemap ontology
+     * @return validator
+     */
+    public Validator getValidator(Ontology ontology)
+    {
+        if (ontology == null) throw new IllegalArgumentException("Ontology cannot be null");
+
+        Validator current = validator;
+        if (current == null || current.getOntModel() != ontology.getOntModel())
+        {
+            Validator prepared = preparedValidator;
+            if (prepared != null && prepared.getOntModel() == ontology.getOntModel()) current = prepared;
+            else current = new Validator(ontology.getOntModel());
+            validator = current;
+        }
+        
+        return current;
+    }
+
+    /**
+     * Compiles constraints of the reloaded ontology before it is swapped in.
+     * 
+     * @param ontology reloaded ontology
+     */
+    @Override
+    public void prepare(Ontology ontology)
+    {
+        preparedValidator = new Validator(ontology.getOntModel());
+    }
+
+    @Override
+    public void reloaded(Ontology ontology)
+    {
+        getValidator(ontology);
+        preparedValidator = null;
+    }
+    
     public Ontology getOntology()
     {
 	ContextResolver<Ontology> cr = getProviders().getContextResolver(Ontology.class, null);
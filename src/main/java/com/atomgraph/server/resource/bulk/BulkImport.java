@@ -0,0 +1,449 @@
+/*
+ * Copyright 2016 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.server.resource.bulk;
+
+import com.atomgraph.core.model.SPARQLEndpoint;
+import com.atomgraph.processor.exception.ConstraintViolationException;
+import com.atomgraph.processor.exception.SkolemizationException;
+import com.atomgraph.processor.update.InsertDataStream;
+import com.atomgraph.processor.util.SkolemizationPlan;
+import com.atomgraph.processor.util.Skolemizer;
+import com.atomgraph.processor.util.Validator;
+import com.atomgraph.server.util.BatchStream;
+import com.atomgraph.server.provider.SingletonProvider;
+import com.atomgraph.server.provider.SkolemizingModelProvider;
+import com.atomgraph.server.provider.ValidatingModelProvider;
+import com.atomgraph.server.util.Bulkhead;
+import com.atomgraph.server.util.Invalidation;
+import com.atomgraph.server.util.InvalidationBus;
+import com.atomgraph.server.util.VirtualThreads;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.Providers;
+import org.apache.jena.ontology.Ontology;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.update.UpdateAction;
+import org.apache.jena.update.UpdateRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spinrdf.constraints.ConstraintViolation;
+
+/**
+ * Bulk import resource.
+ * The request body is parsed as a stream of triples which is split into batches. Each batch is validated, skolemized
+ * and stored using a separate <code>INSERT DATA</code> request. At most a fixed number of batches are being stored
+ * at the same time; parsing blocks while the window is full, so that heap use does not depend on the upload size.
+ * Failed batches do not stop the import, they are listed in the plain text report returned in the response.
+ * The input has to be grouped by subject, with blank nodes described next to the resource they are nested in (see
+ * {@link BatchStream}). Blank nodes are skolemized per batch, references to blank nodes across batches are not supported.
+ * 
+ * Can be attached to a template using <code>ldt:loadClass</code>.
+ * 
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ * @see com.atomgraph.server.resource.graph.BulkItem
+ */
+public class BulkImport
+{
+
+    private static final Logger log = LoggerFactory.getLogger(BulkImport.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+    private final UriInfo uriInfo;
+    private final SPARQLEndpoint sparqlEndpoint;
+    private final Ontology ontology;
+    private final Providers providers;
+
+    public BulkImport(@Context UriInfo uriInfo, @Context SPARQLEndpoint sparqlEndpoint, @Context Ontology ontology,
+            @Context Providers providers)
+    {
+        if (uriInfo == null) throw new IllegalArgumentException("UriInfo cannot be null");
+        if (sparqlEndpoint == null) throw new IllegalArgumentException("SPARQLEndpoint cannot be null");
+        if (ontology == null) throw new IllegalArgumentException("Ontology cannot be null");
+
+        this.uriInfo = uriInfo;
+        this.sparqlEndpoint = sparqlEndpoint;
+        this.ontology = ontology;
+        this.providers = providers;
+    }
+
+    /**
+     * Import progress: numbers of parsed batches and stored triples, and failed batches.
+     */
+    public static class Report
+    {
+        private final AtomicLong batches = new AtomicLong(), triples = new AtomicLong(), stored = new AtomicLong();
+        private final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+        private volatile boolean serverError = false;
+
+        public long addBatch(long size)
+        {
+            triples.addAndGet(size);
+            return batches.incrementAndGet();
+        }
+
+        public void stored(long batch, long size)
+        {
+            long total = stored.addAndGet(size);
+            if (log.isDebugEnabled()) log.debug("Stored batch #{} of {} triples, {} triples stored in total", batch, size, total);
+        }
+
+        public void failed(long batch, Exception ex, boolean serverError)
+        {
+            if (log.isWarnEnabled()) log.warn("Batch #" + batch + " failed", ex);
+            failures.add("Batch #" + batch + ": " + ex.getMessage());
+            if (serverError) this.serverError = true;
+        }
+
+        public long getBatches()
+        {
+            return batches.get();
+        }
+
+        public long getTriples()
+        {
+            return triples.get();
+        }
+
+        public long getStored()
+        {
+            return stored.get();
+        }
+
+        public List<String> getFailures()
+        {
+            synchronized (failures)
+            {
+                return new ArrayList<>(failures);
+            }
+        }
+
+        public boolean isServerError()
+        {
+            return serverError;
+        }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder().
+                append("Batches: ").append(getBatches()).append("\n").
+                append("Triples: ").append(getTriples()).append("\n").
+                append("Stored: ").append(getStored()).append("\n");
+            for (String failure : getFailures())
+                sb.append(failure).append("\n");
+            return sb.toString();
+        }
+
+    }
+
+    @POST
+    @Consumes({"application/n-triples", "text/turtle", "application/rdf+xml"})
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response post(@Context HttpHeaders httpHeaders, InputStream in)
+    {
+        MediaType mediaType = httpHeaders.getMediaType();
+        Lang lang = RDFLanguages.contentTypeToLang(mediaType.getType() + "/" + mediaType.getSubtype());
+        if (lang == null) throw new WebApplicationException(Response.Status.UNSUPPORTED_MEDIA_TYPE);
+
+        Report report = load(in, lang);
+        if (log.isDebugEnabled()) log.debug("Bulk import into <{}> finished. {}", getURI(), report);
+
+        Response.Status status = Response.Status.OK;
+        if (!report.getFailures().isEmpty())
+        {
+            if (report.isServerError()) status = Response.Status.INTERNAL_SERVER_ERROR;
+            else status = Response.Status.BAD_REQUEST;
+        }
+
+        return Response.status(status).entity(report.toString()).type(MediaType.TEXT_PLAIN_TYPE).build();
+    }
+
+    /**
+     * Parses RDF stream and stores it in batches.
+     * Returns when all batches have been stored or have failed.
+     * 
+     * @param in RDF input stream
+     * @param lang RDF syntax
+     * @return import report
+     */
+    public Report load(InputStream in, Lang lang)
+    {
+        if (in == null) throw new IllegalArgumentException("InputStream cannot be null");
+        if (lang == null) throw new IllegalArgumentException("Lang cannot be null");
+
+        final Report report = new Report();
+        final int maxInFlight = getMaxInFlight();
+        final Semaphore window = new Semaphore(maxInFlight);
+        final ExecutorService executor = VirtualThreads.newExecutor("bulk-import", maxInFlight); // in-flight batches are bounded by the window
+        final ValidatingModelProvider modelProvider = getModelProvider(MediaType.valueOf(lang.getContentType().getContentType()));
+        final Validator validator = getValidator(modelProvider);
+        final Skolemizer skolemizer = new Skolemizer(getSkolemizationPlan(modelProvider), getUriInfo().getBaseUriBuilder(), getUriInfo().getAbsolutePathBuilder(),
+                getLanguages(modelProvider));
+        final InvalidationBus invalidationBus = getInvalidationBus();
+        final Bulkhead bulkhead = getBulkhead();
+        // batches are stored off the request thread, so the store is resolved here
+        final Dataset dataset = getDataset();
+        final SPARQLEndpoint endpoint = getSPARQLEndpoint();
+
+        BatchStream stream = new BatchStream(getBatchSize())
+        {
+
+            @Override
+            public void batch(Model batch)
+            {
+                final long size = batch.size();
+                final long number = report.addBatch(size);
+
+                final UpdateRequest request;
+                try
+                {
+                    request = InsertDataStream.fromData(getGraphURI(), process(validator, skolemizer, batch));
+                    request.setBaseURI(getUriInfo().getBaseUri().toString());
+                }
+                catch (ConstraintViolationException | SkolemizationException ex)
+                {
+                    report.failed(number, ex, false);
+                    return;
+                }
+
+                window.acquireUninterruptibly(); // blocks parsing while the window is full
+                try
+                {
+                    executor.submit(new Runnable()
+                    {
+
+                        @Override
+                        public void run()
+                        {
+                            try
+                            {
+                                if (bulkhead != null) bulkhead.acquire();
+                                try
+                                {
+                                    store(dataset, endpoint, request);
+                                }
+                                finally
+                                {
+                                    if (bulkhead != null) bulkhead.release();
+                                }
+                                report.stored(number, size);
+                                if (invalidationBus != null) invalidationBus.publish(Invalidation.fromUpdateRequest(request));
+                            }
+                            catch (RuntimeException ex)
+                            {
+                                report.failed(number, ex, true);
+                            }
+                            finally
+                            {
+                                window.release();
+                            }
+                        }
+
+                    });
+                }
+                catch (RuntimeException ex)
+                {
+                    window.release();
+                    throw ex;
+                }
+            }
+
+        };
+
+        try
+        {
+            RDFDataMgr.parse(stream, in, getURI().toString(), lang);
+        }
+        catch (RiotException ex)
+        {
+            report.failed(report.getBatches() + 1, ex, false);
+        }
+        finally
+        {
+            window.acquireUninterruptibly(maxInFlight); // wait for the in-flight batches
+            executor.shutdown();
+        }
+
+        return report;
+    }
+
+    /**
+     * Validates and skolemizes a batch.
+     * 
+     * @param validator SPIN constraint validator
+     * @param skolemizer skolemizer
+     * @param batch batch model
+     * @return processed model
+     */
+    public Model process(Validator validator, Skolemizer skolemizer, Model batch)
+    {
+        List<ConstraintViolation> cvs = validator.validate(batch);
+        if (!cvs.isEmpty())
+        {
+            if (log.isDebugEnabled()) log.debug("SPIN constraint violations: {}", cvs);
+            throw new ConstraintViolationException(cvs, batch);
+        }
+
+        try
+        {
+            return skolemizer.build(batch);
+        }
+        catch (IllegalArgumentException ex)
+        {
+            throw new SkolemizationException(ex, batch);
+        }
+    }
+
+    /**
+     * Stores a batch. Called from an import thread, so it must not use request-scoped objects.
+     * 
+     * @param dataset local dataset or null, if the endpoint is remote
+     * @param endpoint SPARQL endpoint resolved on the request thread
+     * @param request <code>INSERT DATA</code> request
+     */
+    public void store(Dataset dataset, SPARQLEndpoint endpoint, UpdateRequest request)
+    {
+        if (dataset != null) UpdateAction.execute(request, dataset);
+        else endpoint.post(request, null, null);
+    }
+
+    /**
+     * Returns the model provider registered for the given RDF syntax, which holds the compiled constraints and
+     * skolemization plan of the sitemap.
+     * 
+     * @param mediaType RDF media type
+     * @return model provider or null, if none is registered
+     */
+    public ValidatingModelProvider getModelProvider(MediaType mediaType)
+    {
+        if (getProviders() == null) return null;
+
+        MessageBodyReader<Model> reader = getProviders().getMessageBodyReader(Model.class, null, null, mediaType);
+        if (reader instanceof ValidatingModelProvider) return (ValidatingModelProvider)reader;
+        
+        return null;
+    }
+
+    public Validator getValidator(ValidatingModelProvider modelProvider)
+    {
+        if (modelProvider != null) return modelProvider.getValidator(getOntology());
+        
+        return new Validator(getOntology().getOntModel());
+    }
+
+    public SkolemizationPlan getSkolemizationPlan(ValidatingModelProvider modelProvider)
+    {
+        if (modelProvider instanceof SkolemizingModelProvider) return ((SkolemizingModelProvider)modelProvider).getSkolemizationPlan(getOntology());
+        
+        return new SkolemizationPlan(getOntology());
+    }
+
+    public List<String> getLanguages(ValidatingModelProvider modelProvider)
+    {
+        if (modelProvider instanceof SkolemizingModelProvider) return ((SkolemizingModelProvider)modelProvider).getLanguages();
+        
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns the named graph the data is stored in.
+     * 
+     * @return graph URI or null, if the default graph
+     */
+    public URI getGraphURI()
+    {
+        return null;
+    }
+
+    public int getBatchSize()
+    {
+        return DEFAULT_BATCH_SIZE;
+    }
+
+    public int getMaxInFlight()
+    {
+        return DEFAULT_MAX_IN_FLIGHT;
+    }
+
+    public URI getURI()
+    {
+        return getUriInfo().getAbsolutePath();
+    }
+
+    public InvalidationBus getInvalidationBus()
+    {
+        return SingletonProvider.getContext(getProviders(), InvalidationBus.class);
+    }
+
+    public Bulkhead getBulkhead()
+    {
+        return SingletonProvider.getContext(getProviders(), Bulkhead.class);
+    }
+
+    /**
+     * Returns the local dataset.
+     * 
+     * @return dataset or null, if the SPARQL endpoint is remote
+     */
+    public Dataset getDataset()
+    {
+        return SingletonProvider.getContext(getProviders(), Dataset.class);
+    }
+
+    public UriInfo getUriInfo()
+    {
+        return uriInfo;
+    }
+
+    public SPARQLEndpoint getSPARQLEndpoint()
+    {
+        return sparqlEndpoint;
+    }
+
+    public Ontology getOntology()
+    {
+        return ontology;
+    }
+
+    public Providers getProviders()
+    {
+        return providers;
+    }
+
+}
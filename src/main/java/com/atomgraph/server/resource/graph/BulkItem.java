@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.server.resource.graph;
+
+import com.atomgraph.core.model.SPARQLEndpoint;
+import com.atomgraph.server.resource.bulk.BulkImport;
+import java.net.URI;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.Providers;
+import org.apache.jena.ontology.Ontology;
+
+/**
+ * Named graph bulk import resource.
+ * Like {@link Item}, the request URI identifies the graph the batches are stored in.
+ * 
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ * @see <a href="http://www.w3.org/TR/sparql11-http-rdf-update/#direct-graph-identification">4.1 Direct Graph Identification</a>
+ */
+public class BulkItem extends BulkImport
+{
+
+    public BulkItem(@Context UriInfo uriInfo, @Context SPARQLEndpoint sparqlEndpoint, @Context Ontology ontology,
+            @Context Providers providers)
+    {
+        super(uriInfo, sparqlEndpoint, ontology, providers);
+    }
+
+    @Override
+    public URI getGraphURI()
+    {
+        return getURI();
+    }
+
+}
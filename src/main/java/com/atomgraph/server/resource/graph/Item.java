@@ -18,10 +18,11 @@ package com.atomgraph.server.resource.graph;
 
 import com.atomgraph.core.MediaTypes;
 import org.apache.jena.ontology.Ontology;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryFactory;
 import org.apache.jena.rdf.model.Model;
 import com.sun.jersey.api.core.ResourceContext;
 import javax.ws.rs.core.Context;
-import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
@@ -30,8 +31,8 @@ import javax.ws.rs.core.UriInfo;
 import com.atomgraph.core.model.GraphStore;
 import com.atomgraph.core.model.SPARQLEndpoint;
 import com.atomgraph.server.model.impl.ResourceBase;
-import com.atomgraph.core.util.ModelUtils;
 import com.atomgraph.processor.util.TemplateCall;
+import com.atomgraph.server.util.Invalidation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -71,37 +72,52 @@ public class Item extends ResourceBase
     public Response post(Model model)
     {
 	if (log.isDebugEnabled()) log.debug("POST GRAPH {} to GraphStore {}", getURI(), getGraphStore());
-        return getGraphStore().post(model, Boolean.FALSE, getURI());
+        Response response = getGraphStore().post(model, Boolean.FALSE, getURI());
+        invalidate(Invalidation.fromGraph(getURI()));
+        return response;
     }
 
     @Override
     public Response put(Model model)
     {
-	Model existing = getGraphStore().getModel(getURI().toString());
+	boolean exists = exists();
 
-	if (!existing.isEmpty()) // remove existing representation
+	if (exists && hasPreconditions()) // preconditions refer to the stored graph
 	{
-	    EntityTag entityTag = new EntityTag(Long.toHexString(ModelUtils.hashModel(model)));
-	    ResponseBuilder rb = getRequest().evaluatePreconditions(entityTag);
+	    ResponseBuilder rb = evaluatePreconditions(getGraphStore().getModel(getURI().toString()));
 	    if (rb != null)
 	    {
-		if (log.isDebugEnabled()) log.debug("PUT preconditions were not met for resource: {} with entity tag: {}", this, entityTag);
+		if (log.isDebugEnabled()) log.debug("PUT preconditions were not met for resource: {}", this);
 		return rb.build();
 	    }
         }
         
         if (log.isDebugEnabled()) log.debug("PUT GRAPH {} to GraphStore {}", getURI(), getGraphStore());
         getGraphStore().put(model, Boolean.FALSE, getURI());
+        invalidate(Invalidation.fromGraph(getURI()));
         
-	if (existing.isEmpty()) return Response.created(getURI()).build();        
+	if (!exists) return Response.created(getURI()).build();        
         else return Response.ok(model).build();
     }
 
+    /**
+     * Returns existence query for this named graph. <code>?this</code> is bound to the graph URI.
+     * 
+     * @return <code>ASK</code> query
+     */
+    @Override
+    public Query getExistsQuery()
+    {
+        return QueryFactory.create("ASK { GRAPH ?this { ?s ?p ?o } }");
+    }
+    
     @Override
     public Response delete()
     {
 	if (log.isDebugEnabled()) log.debug("DELETE GRAPH {} from GraphStore {}", getURI(), getGraphStore());
-        return getGraphStore().delete(Boolean.FALSE, getURI());
+        Response response = getGraphStore().delete(Boolean.FALSE, getURI());
+        invalidate(Invalidation.fromGraph(getURI()));
+        return response;
     }
     
 }
\ No newline at end of file
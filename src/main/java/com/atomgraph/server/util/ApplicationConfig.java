@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.server.util;
+
+/**
+ * Optional processor components and settings, in addition to the required constructor arguments of
+ * <code>Application</code>. Everything is disabled by default.
+ *
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ * @see com.atomgraph.server.Application
+ */
+public class ApplicationConfig
+{
+
+    private ModelCache modelCache;
+    private boolean watchSitemap = false;
+    private Bulkhead bulkhead;
+    private ETagIndex etagIndex;
+
+    /**
+     * Sets query result cache.
+     * 
+     * @param modelCache cache or null
+     * @return this config
+     */
+    public ApplicationConfig modelCache(ModelCache modelCache)
+    {
+        this.modelCache = modelCache;
+        return this;
+    }
+
+    /**
+     * Enables reloading of the sitemap when its files change. Requires the sitemap to be cached.
+     * 
+     * @param watchSitemap true if sitemap files are watched
+     * @return this config
+     */
+    public ApplicationConfig watchSitemap(boolean watchSitemap)
+    {
+        this.watchSitemap = watchSitemap;
+        return this;
+    }
+
+    /**
+     * Sets SPARQL concurrency limit.
+     * 
+     * @param bulkhead bulkhead or null
+     * @return this config
+     */
+    public ApplicationConfig bulkhead(Bulkhead bulkhead)
+    {
+        this.bulkhead = bulkhead;
+        return this;
+    }
+
+    /**
+     * Sets entity tag index.
+     * 
+     * @param etagIndex index or null
+     * @return this config
+     */
+    public ApplicationConfig etagIndex(ETagIndex etagIndex)
+    {
+        this.etagIndex = etagIndex;
+        return this;
+    }
+
+    public ModelCache getModelCache()
+    {
+        return modelCache;
+    }
+
+    public boolean isWatchSitemap()
+    {
+        return watchSitemap;
+    }
+
+    public Bulkhead getBulkhead()
+    {
+        return bulkhead;
+    }
+
+    public ETagIndex getETagIndex()
+    {
+        return etagIndex;
+    }
+    
+}
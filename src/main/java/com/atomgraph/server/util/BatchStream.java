@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.server.util;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.sparql.core.Quad;
+
+/**
+ * RDF stream which splits parsed triples into models of (approximately) fixed size.
+ * A batch is only cut where a new URI resource starts. Triples with blank node subjects never start a new batch,
+ * so that blank nodes stay in the same batch as the resource they are nested in.
+ * The stream has to be grouped by subject, with blank nodes described right after the resource referring to them, the way
+ * Turtle and RDF/XML writers serialize nested blank nodes. Triples of a resource that reappears later in the stream
+ * may end up in a different batch.
+ * Quads are added to the batch as triples of the default graph.
+ *
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ */
+public abstract class BatchStream implements StreamRDF
+{
+
+    private final int batchSize;
+    private Model batch;
+    private Node groupSubject;
+
+    public BatchStream(int batchSize)
+    {
+        if (batchSize <= 0) throw new IllegalArgumentException("Batch size must be positive");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Processes a full batch.
+     *
+     * @param batch batch model
+     */
+    public abstract void batch(Model batch);
+
+    @Override
+    public void start()
+    {
+        batch = ModelFactory.createDefaultModel();
+        groupSubject = null;
+    }
+
+    @Override
+    public void triple(Triple triple)
+    {
+        if (batch == null) start();
+
+        Node subject = triple.getSubject();
+        if (!subject.isBlank() && !subject.equals(groupSubject))
+        {
+            if (batch.size() >= getBatchSize()) flush();
+            groupSubject = subject;
+        }
+
+        batch.getGraph().add(triple);
+    }
+
+    @Override
+    public void quad(Quad quad)
+    {
+        triple(quad.asTriple());
+    }
+
+    @Override
+    public void base(String base)
+    {
+    }
+
+    @Override
+    public void prefix(String prefix, String iri)
+    {
+    }
+
+    @Override
+    public void finish()
+    {
+        flush();
+    }
+
+    protected void flush()
+    {
+        if (batch != null && !batch.isEmpty())
+        {
+            Model full = batch;
+            batch = ModelFactory.createDefaultModel();
+            batch(full);
+        }
+    }
+
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2016 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.server.util;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of concurrent SPARQL round-trips.
+ * Requests wait for a permit up to the configured timeout and are rejected with <code>503 Service Unavailable</code>
+ * otherwise, so that slow triplestore responses do not tie up all container threads in a growing queue.
+ *
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ */
+public class Bulkhead
+{
+
+    private static final Logger log = LoggerFactory.getLogger(Bulkhead.class);
+
+    private final Semaphore permits;
+    private final int maxConcurrent;
+    private final long timeout;
+
+    /**
+     * Constructs bulkhead.
+     * 
+     * @param maxConcurrent maximum number of concurrent round-trips
+     * @param timeout maximum time to wait for a permit in milliseconds
+     */
+    public Bulkhead(int maxConcurrent, long timeout)
+    {
+        if (maxConcurrent <= 0) throw new IllegalArgumentException("Max concurrent must be positive");
+        if (timeout < 0) throw new IllegalArgumentException("Timeout cannot be negative");
+
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.maxConcurrent = maxConcurrent;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Acquires a permit. Every successful call has to be followed by <code>release()</code>.
+     * 
+     * @throws WebApplicationException with <code>503 Service Unavailable</code> if no permit is available in time
+     */
+    public void acquire()
+    {
+        try
+        {
+            if (permits.tryAcquire(getTimeout(), TimeUnit.MILLISECONDS)) return;
+            
+            if (log.isWarnEnabled()) log.warn("No SPARQL permit available within {} ms, returning 503 Service Unavailable", getTimeout());
+            throw new WebApplicationException(Response.status(Response.Status.SERVICE_UNAVAILABLE).
+                    header(HttpHeaders.RETRY_AFTER, Math.max(1, getTimeout() / 1000)).
+                    build());
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new WebApplicationException(ex, Response.Status.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    public void release()
+    {
+        permits.release();
+    }
+    
+    public int getAvailable()
+    {
+        return permits.availablePermits();
+    }
+
+    public int getMaxConcurrent()
+    {
+        return maxConcurrent;
+    }
+
+    public long getTimeout()
+    {
+        return timeout;
+    }
+
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2016 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.server.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Variant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process index of entity tags, keyed by application state (<code>TemplateCall</code>) URI and response variant,
+ * as entity tags differ between variants of the same state.
+ * Allows conditional requests to be answered without loading and hashing the model.
+ * Entity tags are recorded when a state is loaded, and removed by write events in the same way as cached models,
+ * so that a write through the processor always yields a new version. Entries expire after max-age, which bounds
+ * staleness caused by writes that bypass the processor.
+ *
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ * @see com.atomgraph.server.util.ModelCache
+ */
+public class ETagIndex implements InvalidationListener
+{
+
+    private static final Logger log = LoggerFactory.getLogger(ETagIndex.class);
+
+    private final int maxEntries;
+    private final long maxAge;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // access order
+    private final Map<String, Set<String>> states = new HashMap<>(); // resource URI -> entry keys
+    private long generation = 0; // incremented on every invalidation
+
+    /**
+     * Constructs index.
+     *
+     * @param maxEntries maximum number of indexed entity tags
+     * @param maxAge max-age of entity tags in seconds
+     */
+    public ETagIndex(int maxEntries, long maxAge)
+    {
+        if (maxEntries <= 0) throw new IllegalArgumentException("Max entries must be positive");
+        if (maxAge <= 0) throw new IllegalArgumentException("Max age must be positive");
+
+        this.maxEntries = maxEntries;
+        this.maxAge = maxAge;
+    }
+
+    public static class Entry
+    {
+        private final String resourceURI;
+        private final EntityTag entityTag;
+        private final long expires;
+
+        public Entry(String resourceURI, EntityTag entityTag, long expires)
+        {
+            this.resourceURI = resourceURI;
+            this.entityTag = entityTag;
+            this.expires = expires;
+        }
+
+        public String getResourceURI()
+        {
+            return resourceURI;
+        }
+
+        public EntityTag getEntityTag()
+        {
+            return entityTag;
+        }
+
+        public long getExpires()
+        {
+            return expires;
+        }
+
+    }
+
+    /**
+     * Returns entry key of the state variant.
+     *
+     * @param stateURI application state URI
+     * @param variant response variant
+     * @return entry key
+     */
+    public static String getKey(String stateURI, Variant variant)
+    {
+        if (stateURI == null) throw new IllegalArgumentException("State URI String cannot be null");
+        if (variant == null) throw new IllegalArgumentException("Variant cannot be null");
+
+        return stateURI + " " + variant.getMediaType() + " " + variant.getLanguage() + " " + variant.getEncoding();
+    }
+
+    /**
+     * Returns the indexed entity tag, or null if it is not indexed or has expired.
+     *
+     * @param stateURI application state URI
+     * @param variant response variant
+     * @return entity tag or null
+     */
+    public synchronized EntityTag get(String stateURI, Variant variant)
+    {
+        String key = getKey(stateURI, variant);
+        Entry entry = entries.get(key);
+        if (entry == null) return null;
+
+        if (entry.getExpires() <= System.currentTimeMillis())
+        {
+            if (log.isDebugEnabled()) log.debug("Entity tag of state variant: {} has expired", key);
+            remove(key);
+            return null;
+        }
+
+        return entry.getEntityTag();
+    }
+
+    /**
+     * Records the entity tag of the current version of the state.
+     *
+     * @param resourceURI URI of the resource which state is indexed, used for invalidation
+     * @param stateURI application state URI
+     * @param variant response variant
+     * @param entityTag entity tag
+     */
+    public synchronized void put(String resourceURI, String stateURI, Variant variant, EntityTag entityTag)
+    {
+        put(resourceURI, stateURI, variant, entityTag, getGeneration());
+    }
+    
+    /**
+     * Records the entity tag of the state, unless the index has been invalidated since the state was loaded.
+     * Otherwise a load that was concurrent with a write could record the version from before the write.
+     *
+     * @param resourceURI URI of the resource which state is indexed, used for invalidation
+     * @param stateURI application state URI
+     * @param variant response variant
+     * @param entityTag entity tag
+     * @param generation generation read before the state was loaded
+     * @see #getGeneration()
+     */
+    public synchronized void put(String resourceURI, String stateURI, Variant variant, EntityTag entityTag, long generation)
+    {
+        if (resourceURI == null) throw new IllegalArgumentException("Resource URI String cannot be null");
+        if (entityTag == null) throw new IllegalArgumentException("EntityTag cannot be null");
+        String key = getKey(stateURI, variant);
+
+        if (generation != this.generation)
+        {
+            if (log.isDebugEnabled()) log.debug("Index was invalidated while loading state URI: {}, not indexing", stateURI);
+            return;
+        }
+        
+        remove(key);
+        entries.put(key, new Entry(resourceURI, entityTag, System.currentTimeMillis() + getMaxAge() * 1000));
+
+        Set<String> resourceStates = states.get(resourceURI);
+        if (resourceStates == null)
+        {
+            resourceStates = new HashSet<>();
+            states.put(resourceURI, resourceStates);
+        }
+        resourceStates.add(key);
+
+        evict();
+    }
+
+    /**
+     * Removes entity tags of all states of the resource.
+     *
+     * @param resourceURI resource URI
+     */
+    public synchronized void invalidate(String resourceURI)
+    {
+        if (resourceURI == null) throw new IllegalArgumentException("Resource URI String cannot be null");
+
+        generation++;
+        Set<String> resourceStates = states.remove(resourceURI);
+        if (resourceStates == null) return;
+
+        for (String key : resourceStates)
+        {
+            if (log.isDebugEnabled()) log.debug("Invalidating entity tag of state variant: {}", key);
+            entries.remove(key);
+        }
+    }
+
+    @Override
+    public void invalidate(Invalidation invalidation)
+    {
+        if (invalidation == null) throw new IllegalArgumentException("Invalidation cannot be null");
+
+        if (invalidation.isAll())
+        {
+            if (log.isDebugEnabled()) log.debug("Clearing all entity tags");
+            clear();
+            return;
+        }
+
+        for (String subject : invalidation.getSubjects())
+        {
+            invalidate(subject);
+            String container = ModelCache.getContainerURI(subject);
+            if (container != null) invalidate(container);
+        }
+        for (String graph : invalidation.getGraphs())
+            invalidate(graph);
+    }
+
+    public synchronized void clear()
+    {
+        generation++;
+        entries.clear();
+        states.clear();
+    }
+
+    protected void remove(String key)
+    {
+        Entry removed = entries.remove(key);
+        if (removed != null) unindex(removed, key);
+    }
+
+    protected void unindex(Entry entry, String key)
+    {
+        Set<String> resourceStates = states.get(entry.getResourceURI());
+        if (resourceStates != null)
+        {
+            resourceStates.remove(key);
+            if (resourceStates.isEmpty()) states.remove(entry.getResourceURI());
+        }
+    }
+
+    protected void evict()
+    {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext() && entries.size() > getMaxEntries())
+        {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (log.isTraceEnabled()) log.trace("Evicting entity tag of state variant: {}", eldest.getKey());
+            it.remove();
+            unindex(eldest.getValue(), eldest.getKey());
+        }
+    }
+
+    /**
+     * Returns the current generation, which changes on every invalidation.
+     * Should be read before loading the value that is put afterwards.
+     *
+     * @return generation
+     */
+    public synchronized long getGeneration()
+    {
+        return generation;
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    public long getMaxAge()
+    {
+        return maxAge;
+    }
+
+}
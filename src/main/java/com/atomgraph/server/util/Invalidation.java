@@ -0,0 +1,199 @@
+/*
+ * Copyright 2016 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.server.util;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.sparql.modify.request.Target;
+import org.apache.jena.sparql.modify.request.UpdateBinaryOp;
+import org.apache.jena.sparql.modify.request.UpdateCreate;
+import org.apache.jena.sparql.modify.request.UpdateData;
+import org.apache.jena.sparql.modify.request.UpdateDeleteWhere;
+import org.apache.jena.sparql.modify.request.UpdateDropClear;
+import org.apache.jena.sparql.modify.request.UpdateLoad;
+import org.apache.jena.sparql.modify.request.UpdateModify;
+import org.apache.jena.update.Update;
+import org.apache.jena.update.UpdateRequest;
+
+/**
+ * Invalidation event: resources and named graphs affected by a write.
+ * Subjects are recorded without fragment identifiers, as cached states are keyed by document (request) URIs: a write to
+ * <code>&lt;doc#this&gt;</code> invalidates <code>&lt;doc&gt;</code>.
+ * If the affected resources cannot be determined (e.g. variable subject or <code>DROP ALL</code>), the event
+ * invalidates everything.
+ *
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ */
+public class Invalidation
+{
+
+    private final Set<String> subjects = new HashSet<>(), graphs = new HashSet<>();
+    private boolean all = false;
+
+    /**
+     * Extracts subject URIs and named graphs from the update operations.
+     *
+     * @param request update request
+     * @return invalidation
+     */
+    public static Invalidation fromUpdateRequest(UpdateRequest request)
+    {
+        if (request == null) throw new IllegalArgumentException("UpdateRequest cannot be null");
+
+        Invalidation invalidation = new Invalidation();
+        for (Update update : request.getOperations())
+            invalidation.add(update);
+        return invalidation;
+    }
+
+    /**
+     * Invalidates named graph (and the document resource with the same URI).
+     *
+     * @param graphURI graph URI
+     * @return invalidation
+     */
+    public static Invalidation fromGraph(URI graphURI)
+    {
+        if (graphURI == null) throw new IllegalArgumentException("Graph URI cannot be null");
+
+        Invalidation invalidation = new Invalidation();
+        invalidation.graphs.add(graphURI.toString());
+        invalidation.subjects.add(graphURI.toString());
+        return invalidation;
+    }
+
+    public static Invalidation fromSubjects(Collection<String> subjects)
+    {
+        if (subjects == null) throw new IllegalArgumentException("Subject Collection cannot be null");
+
+        Invalidation invalidation = new Invalidation();
+        for (String subject : subjects)
+            invalidation.subjects.add(getDocumentURI(subject));
+        return invalidation;
+    }
+
+    public static Invalidation all()
+    {
+        Invalidation invalidation = new Invalidation();
+        invalidation.all = true;
+        return invalidation;
+    }
+
+    protected void add(Update update)
+    {
+        if (update instanceof UpdateData) // INSERT DATA, DELETE DATA
+            addQuads(((UpdateData)update).getQuads(), null);
+        else if (update instanceof UpdateDeleteWhere)
+            addQuads(((UpdateDeleteWhere)update).getQuads(), null);
+        else if (update instanceof UpdateModify) // DELETE/INSERT WHERE
+        {
+            UpdateModify modify = (UpdateModify)update;
+            addQuads(modify.getDeleteQuads(), modify.getWithIRI());
+            addQuads(modify.getInsertQuads(), modify.getWithIRI());
+        }
+        else if (update instanceof UpdateDropClear)
+        {
+            UpdateDropClear dropClear = (UpdateDropClear)update;
+            if (dropClear.isOneGraph() && dropClear.getGraph().isURI()) graphs.add(dropClear.getGraph().getURI());
+            else all = true;
+        }
+        else if (update instanceof UpdateLoad)
+        {
+            Node dest = ((UpdateLoad)update).getDest();
+            if (dest != null && dest.isURI()) graphs.add(dest.getURI());
+            else all = true;
+        }
+        else if (update instanceof UpdateBinaryOp) // ADD, COPY, MOVE
+        {
+            UpdateBinaryOp op = (UpdateBinaryOp)update;
+            addTarget(op.getSrc());
+            addTarget(op.getDest());
+        }
+        else if (!(update instanceof UpdateCreate)) all = true; // CREATE does not change data
+    }
+
+    protected void addTarget(Target target)
+    {
+        if (target.isOneNamedGraph() && target.getGraph().isURI()) graphs.add(target.getGraph().getURI());
+        else all = true;
+    }
+
+    protected void addQuads(Collection<Quad> quads, Node withIRI)
+    {
+        for (Quad quad : quads)
+        {
+            Node subject = quad.getSubject();
+            if (subject.isURI()) subjects.add(getDocumentURI(subject.getURI()));
+            else if (subject.isVariable()) all = true; // unbound subject, cannot tell which resources are affected
+
+            Node graph = quad.isDefaultGraph() ? withIRI : quad.getGraph();
+            if (graph != null)
+            {
+                if (graph.isURI()) graphs.add(graph.getURI());
+                else if (graph.isVariable()) all = true;
+            }
+        }
+    }
+
+    /**
+     * Returns URI without the fragment identifier.
+     *
+     * @param uri resource URI
+     * @return document URI
+     */
+    public static String getDocumentURI(String uri)
+    {
+        if (uri == null) throw new IllegalArgumentException("URI cannot be null");
+
+        int hash = uri.indexOf('#');
+        if (hash == -1) return uri;
+        return uri.substring(0, hash);
+    }
+
+    public Set<String> getSubjects()
+    {
+        return Collections.unmodifiableSet(subjects);
+    }
+
+    public Set<String> getGraphs()
+    {
+        return Collections.unmodifiableSet(graphs);
+    }
+
+    public boolean isAll()
+    {
+        return all;
+    }
+
+    public boolean isEmpty()
+    {
+        return !isAll() && subjects.isEmpty() && graphs.isEmpty();
+    }
+
+    @Override
+    public String toString()
+    {
+        if (isAll()) return "Invalidation[all]";
+
+        return "Invalidation[subjects=" + subjects + ", graphs=" + graphs + "]";
+    }
+
+}
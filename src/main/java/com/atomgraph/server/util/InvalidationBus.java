@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.server.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.apache.jena.update.UpdateRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes invalidation events caused by writes to the registered listeners (e.g. caches).
+ * Events are sent over a pluggable transport; a failing listener does not prevent delivery to the others.
+ *
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ * @see com.atomgraph.server.util.Invalidation
+ */
+public class InvalidationBus
+{
+
+    private static final Logger log = LoggerFactory.getLogger(InvalidationBus.class);
+
+    private final InvalidationTransport transport;
+    private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<>();
+
+    public InvalidationBus()
+    {
+        this(new LocalTransport());
+    }
+
+    public InvalidationBus(InvalidationTransport transport)
+    {
+        if (transport == null) throw new IllegalArgumentException("InvalidationTransport cannot be null");
+
+        this.transport = transport;
+        transport.subscribe(new InvalidationListener()
+        {
+
+            @Override
+            public void invalidate(Invalidation invalidation)
+            {
+                deliver(invalidation);
+            }
+
+        });
+    }
+
+    public void addListener(InvalidationListener listener)
+    {
+        if (listener == null) throw new IllegalArgumentException("InvalidationListener cannot be null");
+
+        listeners.add(listener);
+    }
+
+    public void removeListener(InvalidationListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Publishes resources affected by the update.
+     *
+     * @param request executed update
+     */
+    public void publish(UpdateRequest request)
+    {
+        publish(Invalidation.fromUpdateRequest(request));
+    }
+
+    public void publish(Invalidation invalidation)
+    {
+        if (invalidation == null) throw new IllegalArgumentException("Invalidation cannot be null");
+        if (invalidation.isEmpty()) return;
+
+        if (log.isDebugEnabled()) log.debug("Publishing {}", invalidation);
+        getTransport().publish(invalidation);
+    }
+
+    protected void deliver(Invalidation invalidation)
+    {
+        for (InvalidationListener listener : listeners)
+        {
+            try
+            {
+                listener.invalidate(invalidation);
+            }
+            catch (RuntimeException ex)
+            {
+                if (log.isWarnEnabled()) log.warn("InvalidationListener {} failed to process {}", listener, invalidation, ex);
+            }
+        }
+    }
+
+    public InvalidationTransport getTransport()
+    {
+        return transport;
+    }
+
+}
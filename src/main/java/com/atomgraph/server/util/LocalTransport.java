@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.server.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process invalidation transport. Events are delivered synchronously on the publishing thread.
+ *
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ */
+public class LocalTransport implements InvalidationTransport
+{
+
+    private final List<InvalidationListener> subscribers = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(Invalidation invalidation)
+    {
+        if (invalidation == null) throw new IllegalArgumentException("Invalidation cannot be null");
+
+        for (InvalidationListener subscriber : subscribers)
+            subscriber.invalidate(invalidation);
+    }
+
+    @Override
+    public void subscribe(InvalidationListener listener)
+    {
+        if (listener == null) throw new IllegalArgumentException("InvalidationListener cannot be null");
+
+        subscribers.add(listener);
+    }
+
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2016 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.server.util;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process cache of query result models, keyed by application state (<code>TemplateCall</code>) URI.
+ * Least recently used entries are evicted when either the number of entries or the total number of triples
+ * exceeds the configured maximum. Entries expire after their max-age.
+ * Models are copied on the way in and out, so that cached models are never modified by the response filters.
+ * Entries are invalidated by write events: descriptions of containers include their children, so the parent
+ * container of an affected resource is invalidated as well.
+ *
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ */
+public class ModelCache implements InvalidationListener
+{
+
+    private static final Logger log = LoggerFactory.getLogger(ModelCache.class);
+
+    private final int maxEntries;
+    private final long maxTriples;
+    private final long maxAge;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // access order
+    private final Map<String, Set<String>> states = new HashMap<>(); // resource URI -> state URIs
+    private long generation = 0; // incremented on every invalidation
+    private long triples = 0;
+
+    /**
+     * Constructs cache.
+     *
+     * @param maxEntries maximum number of cached models
+     * @param maxTriples maximum total number of cached triples
+     * @param maxAge default max-age in seconds, used if the template does not specify one
+     */
+    public ModelCache(int maxEntries, long maxTriples, long maxAge)
+    {
+        if (maxEntries <= 0) throw new IllegalArgumentException("Max entries must be positive");
+        if (maxTriples <= 0) throw new IllegalArgumentException("Max triples must be positive");
+        if (maxAge < 0) throw new IllegalArgumentException("Max age cannot be negative");
+
+        this.maxEntries = maxEntries;
+        this.maxTriples = maxTriples;
+        this.maxAge = maxAge;
+    }
+
+    public static class Entry
+    {
+        private final String resourceURI;
+        private final Model model;
+        private final long expires;
+
+        public Entry(String resourceURI, Model model, long expires)
+        {
+            this.resourceURI = resourceURI;
+            this.model = model;
+            this.expires = expires;
+        }
+
+        public String getResourceURI()
+        {
+            return resourceURI;
+        }
+
+        public Model getModel()
+        {
+            return model;
+        }
+
+        public long getExpires()
+        {
+            return expires;
+        }
+
+        public long getWeight()
+        {
+            return getModel().size();
+        }
+
+    }
+
+    /**
+     * Returns a copy of the cached model, or null if it is not cached or has expired.
+     *
+     * @param stateURI application state URI
+     * @return model copy or null
+     */
+    public synchronized Model get(String stateURI)
+    {
+        if (stateURI == null) throw new IllegalArgumentException("State URI String cannot be null");
+
+        Entry entry = entries.get(stateURI);
+        if (entry == null) return null;
+
+        if (entry.getExpires() <= System.currentTimeMillis())
+        {
+            if (log.isDebugEnabled()) log.debug("Cached Model of state URI: {} has expired", stateURI);
+            remove(stateURI);
+            return null;
+        }
+
+        if (log.isDebugEnabled()) log.debug("Cache hit for state URI: {}", stateURI);
+        return ModelFactory.createDefaultModel().add(entry.getModel());
+    }
+
+    /**
+     * Caches a copy of the model.
+     *
+     * @param resourceURI URI of the resource which state is cached, used for invalidation
+     * @param stateURI application state URI
+     * @param model query result
+     * @param maxAge max-age in seconds, or negative to use the default one
+     */
+    public void put(String resourceURI, String stateURI, Model model, int maxAge)
+    {
+        put(resourceURI, stateURI, model, maxAge, getGeneration());
+    }
+    
+    /**
+     * Caches a copy of the model, unless the cache has been invalidated since the model was loaded.
+     * Otherwise a load that was concurrent with a write could cache the state from before the write.
+     *
+     * @param resourceURI URI of the resource which state is cached, used for invalidation
+     * @param stateURI application state URI
+     * @param model query result
+     * @param maxAge max-age in seconds, or negative to use the default one
+     * @param generation generation read before the model was loaded
+     * @see #getGeneration()
+     */
+    public void put(String resourceURI, String stateURI, Model model, int maxAge, long generation)
+    {
+        if (resourceURI == null) throw new IllegalArgumentException("Resource URI String cannot be null");
+        if (stateURI == null) throw new IllegalArgumentException("State URI String cannot be null");
+        if (model == null) throw new IllegalArgumentException("Model cannot be null");
+
+        long age = maxAge >= 0 ? maxAge : getMaxAge();
+        if (age == 0 || model.size() > getMaxTriples()) return; // not worth caching
+
+        Entry entry = new Entry(resourceURI, ModelFactory.createDefaultModel().add(model),
+                System.currentTimeMillis() + age * 1000);
+
+        synchronized (this)
+        {
+            if (generation != this.generation)
+            {
+                if (log.isDebugEnabled()) log.debug("Cache was invalidated while loading state URI: {}, not caching", stateURI);
+                return;
+            }
+            
+            remove(stateURI);
+            entries.put(stateURI, entry);
+            triples += entry.getWeight();
+            
+            Set<String> resourceStates = states.get(resourceURI);
+            if (resourceStates == null)
+            {
+                resourceStates = new HashSet<>();
+                states.put(resourceURI, resourceStates);
+            }
+            resourceStates.add(stateURI);
+            
+            evict();
+        }
+    }
+
+    /**
+     * Removes all cached states of the resource.
+     *
+     * @param resourceURI resource URI
+     */
+    public synchronized void invalidate(String resourceURI)
+    {
+        if (resourceURI == null) throw new IllegalArgumentException("Resource URI String cannot be null");
+
+        generation++;
+        Set<String> resourceStates = states.remove(resourceURI);
+        if (resourceStates == null) return;
+        
+        for (String stateURI : resourceStates)
+        {
+            if (log.isDebugEnabled()) log.debug("Invalidating cached Model of state URI: {}", stateURI);
+            Entry removed = entries.remove(stateURI);
+            if (removed != null) triples -= removed.getWeight();
+        }
+    }
+
+    @Override
+    public void invalidate(Invalidation invalidation)
+    {
+        if (invalidation == null) throw new IllegalArgumentException("Invalidation cannot be null");
+
+        if (invalidation.isAll())
+        {
+            if (log.isDebugEnabled()) log.debug("Clearing all cached Models");
+            clear();
+            return;
+        }
+
+        for (String subject : invalidation.getSubjects())
+        {
+            invalidate(subject);
+            String container = getContainerURI(subject);
+            if (container != null) invalidate(container);
+        }
+        for (String graph : invalidation.getGraphs())
+            invalidate(graph);
+    }
+
+    /**
+     * Returns URI of the parent container, by URI hierarchy.
+     *
+     * @param uri resource URI
+     * @return container URI or null, if there is none
+     */
+    public static String getContainerURI(String uri)
+    {
+        try
+        {
+            URI resource = URI.create(uri);
+            if (resource.getPath() == null || resource.getPath().isEmpty() || resource.getPath().equals("/")) return null;
+
+            return resource.resolve(resource.getPath().endsWith("/") ? ".." : ".").toString();
+        }
+        catch (IllegalArgumentException ex)
+        {
+            return null; // not a hierarchical URI
+        }
+    }
+
+    public synchronized void clear()
+    {
+        generation++;
+        entries.clear();
+        states.clear();
+        triples = 0;
+    }
+
+    protected void remove(String stateURI)
+    {
+        Entry removed = entries.remove(stateURI);
+        if (removed != null) unindex(removed, stateURI);
+    }
+
+    protected void unindex(Entry entry, String stateURI)
+    {
+        triples -= entry.getWeight();
+        
+        Set<String> resourceStates = states.get(entry.getResourceURI());
+        if (resourceStates != null)
+        {
+            resourceStates.remove(stateURI);
+            if (resourceStates.isEmpty()) states.remove(entry.getResourceURI());
+        }
+    }
+
+    protected void evict()
+    {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext() && (entries.size() > getMaxEntries() || triples > getMaxTriples()))
+        {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (log.isTraceEnabled()) log.trace("Evicting cached Model of state URI: {}", eldest.getKey());
+            it.remove();
+            unindex(eldest.getValue(), eldest.getKey());
+        }
+    }
+
+    /**
+     * Returns the current generation, which changes on every invalidation.
+     * Should be read before loading the value that is put afterwards.
+     *
+     * @return generation
+     */
+    public synchronized long getGeneration()
+    {
+        return generation;
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    public synchronized long getTriples()
+    {
+        return triples;
+    }
+
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    public long getMaxTriples()
+    {
+        return maxTriples;
+    }
+
+    public long getMaxAge()
+    {
+        return maxAge;
+    }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2016 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.server.util;
+
+import org.apache.jena.ontology.Ontology;
+
+/**
+ * Receives sitemap ontology reload events.
+ * Listeners can use them to compile per-sitemap structures in advance, so that the first requests against the reloaded
+ * ontology do not have to.
+ *
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ * @see com.atomgraph.server.provider.OntologyProvider#reload()
+ */
+public interface OntologyListener
+{
+
+    /**
+     * Called with the reloaded ontology before it replaces the current one.
+     * 
+     * @param ontology reloaded ontology
+     */
+    void prepare(Ontology ontology);
+
+    /**
+     * Called after the reloaded ontology has replaced the current one.
+     * 
+     * @param ontology current ontology
+     */
+    void reloaded(Ontology ontology);
+    
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2016 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.server.util;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches sitemap ontology files and runs a callback when any of them changes.
+ * Events are debounced, so that an editor writing a file in several steps triggers a single reload.
+ * The watcher runs in a daemon thread.
+ *
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ */
+public class OntologyWatcher implements Runnable, AutoCloseable
+{
+
+    private static final Logger log = LoggerFactory.getLogger(OntologyWatcher.class);
+    
+    public static final long DEFAULT_DELAY = 500;
+    
+    private final WatchService watchService;
+    private final Set<Path> files = new HashSet<>();
+    private final Runnable callback;
+    private final long delay;
+    
+    public OntologyWatcher(Collection<Path> files, Runnable callback) throws IOException
+    {
+        this(files, callback, DEFAULT_DELAY);
+    }
+    
+    /**
+     * Constructs watcher.
+     * 
+     * @param files watched files
+     * @param callback action to run on change
+     * @param delay debounce delay in milliseconds
+     * @throws IOException if the files cannot be watched
+     */
+    public OntologyWatcher(Collection<Path> files, Runnable callback, long delay) throws IOException
+    {
+        if (files == null) throw new IllegalArgumentException("Path Collection cannot be null");
+        if (callback == null) throw new IllegalArgumentException("Runnable cannot be null");
+
+        this.callback = callback;
+        this.delay = delay;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        
+        Set<Path> dirs = new HashSet<>();
+        for (Path file : files)
+        {
+            Path absolute = file.toAbsolutePath().normalize();
+            this.files.add(absolute);
+            if (dirs.add(absolute.getParent()))
+                absolute.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+    }
+    
+    /**
+     * Starts watching in a daemon thread.
+     * 
+     * @return the same watcher
+     */
+    public OntologyWatcher start()
+    {
+        Thread thread = new Thread(this, "ontology-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        
+        if (log.isInfoEnabled()) log.info("Watching sitemap files: {}", files);
+        return this;
+    }
+    
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (true)
+            {
+                WatchKey key = watchService.take();
+                boolean changed = poll(key);
+                
+                // debounce: collect the events that follow within the delay
+                while ((key = watchService.poll(delay, TimeUnit.MILLISECONDS)) != null)
+                    changed = poll(key) || changed;
+
+                if (changed)
+                    try
+                    {
+                        callback.run();
+                    }
+                    catch (RuntimeException ex)
+                    {
+                        if (log.isErrorEnabled()) log.error("Sitemap file change callback failed", ex);
+                    }
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException ex)
+        {
+            if (log.isDebugEnabled()) log.debug("Stopped watching sitemap files");
+        }
+    }
+    
+    protected boolean poll(WatchKey key)
+    {
+        boolean changed = false;
+        Path dir = (Path)key.watchable();
+        
+        for (WatchEvent<?> event : key.pollEvents())
+            if (event.context() instanceof Path && files.contains(dir.resolve((Path)event.context())))
+            {
+                if (log.isDebugEnabled()) log.debug("Sitemap file changed: {}", dir.resolve((Path)event.context()));
+                changed = true;
+            }
+        
+        key.reset();
+        return changed;
+    }
+    
+    @Override
+    public void close() throws IOException
+    {
+        watchService.close();
+    }
+    
+    public Set<Path> getFiles()
+    {
+        return files;
+    }
+    
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.server.util;
+
+import com.atomgraph.processor.model.Template;
+import com.atomgraph.processor.util.TemplateCall;
+import java.util.Map;
+import org.apache.jena.ontology.Ontology;
+
+/**
+ * Per-request processing state: sitemap ontology snapshot, matched template and template call.
+ * It is kept in the request properties, so that the providers, resources, filters and mappers of the same request
+ * share the values instead of computing them again. Template matching and argument binding therefore happen once
+ * per request, and all of them see the same ontology snapshot even if the sitemap is reloaded meanwhile.
+ * The context is created on first use, and values are set by the providers that compute them; the ontology snapshot
+ * is taken when the ontology is first requested. The context itself is not thread-safe, just like the request.
+ *
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ */
+public class ProcessingContext
+{
+
+    public static final String PROPERTY = ProcessingContext.class.getName();
+    
+    private Ontology ontology;
+    private Template template;
+    private boolean templateMatched = false;
+    private TemplateCall templateCall;
+
+    /**
+     * Returns processing context of the request, creating it if it does not exist yet.
+     * 
+     * @param properties request properties
+     * @return processing context
+     */
+    public static ProcessingContext get(Map<String, Object> properties)
+    {
+        if (properties == null) throw new IllegalArgumentException("Property Map cannot be null");
+
+        ProcessingContext context = (ProcessingContext)properties.get(PROPERTY);
+        if (context == null)
+        {
+            context = new ProcessingContext();
+            properties.put(PROPERTY, context);
+        }
+        
+        return context;
+    }
+    
+    public Ontology getOntology()
+    {
+        return ontology;
+    }
+
+    public void setOntology(Ontology ontology)
+    {
+        this.ontology = ontology;
+    }
+
+    public Template getTemplate()
+    {
+        return template;
+    }
+
+    /**
+     * Sets matched template. Null means that no template matched.
+     * 
+     * @param template matched template or null
+     */
+    public void setTemplate(Template template)
+    {
+        this.template = template;
+        this.templateMatched = true;
+    }
+    
+    /**
+     * Returns true if template matching has been done for this request, regardless of its result.
+     * 
+     * @return true if matched
+     */
+    public boolean isTemplateMatched()
+    {
+        return templateMatched;
+    }
+
+    public TemplateCall getTemplateCall()
+    {
+        return templateCall;
+    }
+
+    public void setTemplateCall(TemplateCall templateCall)
+    {
+        this.templateCall = templateCall;
+    }
+    
+}
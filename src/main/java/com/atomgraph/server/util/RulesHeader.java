@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.server.util;
+
+import com.atomgraph.processor.util.RulePrinter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import org.apache.jena.reasoner.Reasoner;
+import org.apache.jena.reasoner.rulesys.GenericRuleReasoner;
+import org.apache.jena.reasoner.rulesys.Rule;
+
+/**
+ * Rendered <code>Rules</code> response header of a rule reasoner.
+ * Rules of a reasoner do not change, so the header value and its hash are rendered once per reasoner instance.
+ * Responses always carry the <code>Rules-Hash</code> header. The full <code>Rules</code> header is omitted if the client
+ * sends a <code>Rules-Hash</code> request header with the same hash, i.e. it already has the rules.
+ * 
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ */
+public class RulesHeader
+{
+
+    public static final String RULES = "Rules";
+    public static final String RULES_HASH = "Rules-Hash";
+    
+    private static final Map<Reasoner, RulesHeader> headers = new WeakHashMap<>();
+
+    private final String value;
+    private final String hash;
+    
+    public RulesHeader(List<Rule> rules)
+    {
+        if (rules == null) throw new IllegalArgumentException("Rule List cannot be null");
+
+        this.value = RulePrinter.print(rules); // rules.toString() - prevented by JENA-1030 bug
+        this.hash = getHash(value);
+    }
+    
+    /**
+     * Returns cached header of the reasoner.
+     * 
+     * @param reasoner reasoner
+     * @return header or null, if the reasoner is not a rule reasoner
+     */
+    public static RulesHeader get(Reasoner reasoner)
+    {
+        if (!(reasoner instanceof GenericRuleReasoner)) return null;
+        
+        synchronized (headers)
+        {
+            RulesHeader header = headers.get(reasoner);
+            if (header == null)
+            {
+                header = new RulesHeader(((GenericRuleReasoner)reasoner).getRules());
+                headers.put(reasoner, header);
+            }
+            
+            return header;
+        }
+    }
+    
+    /**
+     * Adds the headers to the response.
+     * 
+     * @param builder response builder
+     * @param requestHeaders request headers, or null if the full rules should always be sent
+     * @return the same response builder
+     */
+    public ResponseBuilder apply(ResponseBuilder builder, HttpHeaders requestHeaders)
+    {
+        if (builder == null) throw new IllegalArgumentException("ResponseBuilder cannot be null");
+
+        builder.header(RULES_HASH, getHash());
+        if (requestHeaders == null) return builder.header(RULES, getValue());
+        
+        builder.header(HttpHeaders.VARY, RULES_HASH);
+        List<String> hashes = requestHeaders.getRequestHeader(RULES_HASH);
+        if (hashes == null || !hashes.contains(getHash())) builder.header(RULES, getValue());
+        
+        return builder;
+    }
+    
+    public static String getHash(String value)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) hex.append(String.format("%02x", b));
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new IllegalStateException(ex); // SHA-1 is always supported
+        }
+    }
+    
+    public String getValue()
+    {
+        return value;
+    }
+
+    public String getHash()
+    {
+        return hash;
+    }
+    
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.server.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Thread factories and executors for background work (bulk import batches, sitemap reloads).
+ * On JDK 21 and later, tasks run on virtual threads, so that blocking SPARQL I/O does not pin platform threads.
+ * On earlier JDKs, platform daemon threads are used instead.
+ * The virtual thread API is looked up reflectively, so that the code still compiles for Java 1.7.
+ * Virtual threads can be disabled using the <code>com.atomgraph.server.virtualThreads</code> system property.
+ *
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ */
+public class VirtualThreads
+{
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreads.class);
+
+    public static final String PROPERTY = "com.atomgraph.server.virtualThreads";
+    
+    private static final Method OF_VIRTUAL, NAME, FACTORY;
+    static
+    {
+        Method ofVirtual = null, name = null, factory = null;
+        if (Boolean.parseBoolean(System.getProperty(PROPERTY, "true")))
+            try
+            {
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                ofVirtual = Thread.class.getMethod("ofVirtual");
+                name = builderClass.getMethod("name", String.class, long.class);
+                factory = builderClass.getMethod("factory");
+            }
+            catch (ClassNotFoundException | NoSuchMethodException ex)
+            {
+                if (log.isDebugEnabled()) log.debug("Virtual threads are not available on this JVM, using platform threads");
+                ofVirtual = name = factory = null;
+            }
+        
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+    }
+
+    /**
+     * Returns true if virtual threads are available and enabled.
+     * 
+     * @return true if virtual threads are used
+     */
+    public static boolean isAvailable()
+    {
+        return FACTORY != null;
+    }
+    
+    /**
+     * Returns thread factory that names threads <code>name-0</code>, <code>name-1</code> etc.
+     * Threads are virtual if available, otherwise daemon platform threads.
+     * 
+     * @param name thread name prefix
+     * @return thread factory
+     */
+    public static ThreadFactory getThreadFactory(final String name)
+    {
+        if (name == null) throw new IllegalArgumentException("Thread name String cannot be null");
+
+        if (isAvailable())
+            try
+            {
+                Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), name + "-", 0L);
+                return (ThreadFactory)FACTORY.invoke(builder);
+            }
+            catch (ReflectiveOperationException ex)
+            {
+                if (log.isWarnEnabled()) log.warn("Could not create virtual thread factory, using platform threads", ex);
+            }
+        
+        final AtomicLong count = new AtomicLong();
+        return new ThreadFactory()
+        {
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, name + "-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        };
+    }
+    
+    /**
+     * Returns executor for blocking tasks.
+     * With virtual threads, every task gets its own thread and concurrency has to be bounded by the caller.
+     * Otherwise a fixed pool of platform threads is used.
+     * 
+     * @param name thread name prefix
+     * @param maxThreads pool size, used with platform threads
+     * @return executor service
+     */
+    public static ExecutorService newExecutor(String name, int maxThreads)
+    {
+        if (maxThreads <= 0) throw new IllegalArgumentException("Max threads must be positive");
+        
+        ThreadFactory threadFactory = getThreadFactory(name);
+        if (isAvailable()) return new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                0L, TimeUnit.MILLISECONDS, new SynchronousQueue<Runnable>(), threadFactory);
+        
+        return Executors.newFixedThreadPool(maxThreads, threadFactory);
+    }
+    
+    /**
+     * Returns executor that runs tasks sequentially on a single thread.
+     * 
+     * @param name thread name prefix
+     * @return executor service
+     */
+    public static ExecutorService newSingleThreadExecutor(String name)
+    {
+        return Executors.newSingleThreadExecutor(getThreadFactory(name));
+    }
+    
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2017 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.processor.query;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.QuerySolution;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests pagination of container sub-queries, in particular keyset pagination with IRI values and ties.
+ *
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ */
+public class SubSelectTransformTest
+{
+
+    public static final String CONTAINER = "http://localhost/c/";
+    
+    public static final String DATA =
+            "@prefix sioc: <http://rdfs.org/sioc/ns#> .\n" +
+            "@prefix dct: <http://purl.org/dc/terms/> .\n" +
+            "<" + CONTAINER + "1> sioc:has_parent <" + CONTAINER + "> ; dct:title \"a\" .\n" +
+            "<" + CONTAINER + "2> sioc:has_parent <" + CONTAINER + "> ; dct:title \"b\" .\n" +
+            "<" + CONTAINER + "3> sioc:has_container <" + CONTAINER + "> ; dct:title \"b\" .\n" +
+            "<" + CONTAINER + "4> sioc:has_parent <" + CONTAINER + "> ; dct:title \"b\" .\n" +
+            "<" + CONTAINER + "5> sioc:has_parent <" + CONTAINER + "> ; dct:title \"c\" .\n";
+    
+    // same pattern as dht:DescribeWithChildren, as SELECT so that the rows can be read
+    public static final String QUERY =
+            "PREFIX sioc: <http://rdfs.org/sioc/ns#>\n" +
+            "PREFIX dct: <http://purl.org/dc/terms/>\n" +
+            "SELECT ?child ?title\n" +
+            "WHERE\n" +
+            "  { { SELECT DISTINCT ?child ?title\n" +
+            "      WHERE\n" +
+            "        {   { ?child sioc:has_parent <" + CONTAINER + "> }\n" +
+            "          UNION\n" +
+            "            { ?child sioc:has_container <" + CONTAINER + "> }\n" +
+            "          ?child dct:title ?title\n" +
+            "        }\n" +
+            "    }\n" +
+            "  }";
+    
+    private static Model model;
+    private static Query query;
+    
+    @BeforeClass
+    public static void setUpClass()
+    {
+        model = ModelFactory.createDefaultModel().read(new StringReader(DATA), null, "TURTLE");
+        query = QueryFactory.create(QUERY);
+    }
+    
+    public static List<QuerySolution> select(Query query)
+    {
+        List<QuerySolution> solutions = new ArrayList<>();
+        try (QueryExecution qex = QueryExecutionFactory.create(query, model))
+        {
+            ResultSet results = qex.execSelect();
+            while (results.hasNext()) solutions.add(results.next());
+        }
+        return solutions;
+    }
+    
+    public static int compare(Node node1, Node node2)
+    {
+        String str1 = node1.isURI() ? node1.getURI() : node1.getLiteralLexicalForm();
+        String str2 = node2.isURI() ? node2.getURI() : node2.getLiteralLexicalForm();
+        return str1.compareTo(str2);
+    }
+    
+    /**
+     * Pages through the container using keyset cursors.
+     * 
+     * @param orderBy ORDER BY variable name
+     * @param desc true if descending
+     * @return pages with row URIs
+     */
+    public static List<List<String>> page(String orderBy, boolean desc)
+    {
+        List<List<String>> pages = new ArrayList<>();
+        KeysetCursor cursor = null;
+        
+        while (pages.size() < 10)
+        {
+            SubSelectTransform transform = new SubSelectTransform(SubSelectTransform.getSubSelect(query)).
+                    orderBy(orderBy, desc).
+                    limit(2L);
+            if (cursor != null) transform.after(KeysetCursor.parse(cursor.toString()));
+            
+            List<QuerySolution> solutions = select(transform.apply(query));
+            if (solutions.isEmpty()) break;
+            
+            List<String> page = new ArrayList<>();
+            Node lastValue = null, lastRow = null;
+            for (QuerySolution solution : solutions)
+            {
+                Node row = solution.get("child").asNode(), value = solution.get(orderBy).asNode();
+                page.add(row.getURI().substring(CONTAINER.length()));
+                
+                int diff = 0;
+                if (lastRow != null)
+                {
+                    diff = compare(value, lastValue);
+                    if (diff == 0) diff = compare(row, lastRow);
+                    if (desc) diff = -diff;
+                }
+                if (lastRow == null || diff > 0)
+                {
+                    lastRow = row;
+                    lastValue = value;
+                }
+            }
+            Collections.sort(page);
+            pages.add(page);
+            
+            cursor = new KeysetCursor(lastValue, orderBy.equals("child") ? null : lastRow);
+        }
+        
+        return pages;
+    }
+    
+    public static List<String> list(String... rows)
+    {
+        return Arrays.asList(rows);
+    }
+    
+    @Test
+    public void testOffsetLimit()
+    {
+        Query paged = new SubSelectTransform(SubSelectTransform.getSubSelect(query)).
+                orderBy("child", false).
+                offset(2L).
+                limit(2L).
+                apply(query);
+        
+        assertEquals(2, select(paged).size());
+        assertEquals(QueryFactory.create(QUERY), query); // original query is not modified
+    }
+    
+    @Test
+    public void testKeysetByIRI()
+    {
+        List<List<String>> pages = page("child", false);
+        
+        assertEquals(3, pages.size());
+        assertEquals(list("1", "2"), pages.get(0));
+        assertEquals(list("3", "4"), pages.get(1));
+        assertEquals(list("5"), pages.get(2));
+    }
+
+    @Test
+    public void testKeysetWithTies()
+    {
+        List<List<String>> pages = page("title", false);
+        
+        assertEquals(3, pages.size());
+        assertEquals(list("1", "2"), pages.get(0));
+        assertEquals(list("3", "4"), pages.get(1));
+        assertEquals(list("5"), pages.get(2));
+    }
+
+    @Test
+    public void testKeysetDescendingWithTies()
+    {
+        List<List<String>> pages = page("title", true);
+        
+        assertEquals(3, pages.size());
+        assertEquals(list("4", "5"), pages.get(0));
+        assertEquals(list("2", "3"), pages.get(1));
+        assertEquals(list("1"), pages.get(2));
+    }
+
+    @Test
+    public void testTieBreakerOrderBy()
+    {
+        Query paged = new SubSelectTransform(SubSelectTransform.getSubSelect(query)).
+                orderBy("title", false).
+                apply(query);
+        Query subQuery = SubSelectTransform.getSubSelect(paged).getQuery();
+        
+        assertEquals(2, subQuery.getOrderBy().size());
+        assertEquals("title", subQuery.getOrderBy().get(0).getExpression().getVarName());
+        assertEquals("child", subQuery.getOrderBy().get(1).getExpression().getVarName());
+    }
+    
+    @Test
+    public void testKeyVar()
+    {
+        assertEquals("child", SubSelectTransform.getKeyVar(SubSelectTransform.getSubSelect(query).getQuery()).getVarName());
+    }
+    
+    @Test
+    public void testCursorRoundTrip()
+    {
+        KeysetCursor cursor = KeysetCursor.parse(new KeysetCursor(NodeFactory.createLiteral("b"), NodeFactory.createURI(CONTAINER + "2")).toString());
+        
+        assertEquals(NodeFactory.createLiteral("b"), cursor.getValue());
+        assertEquals(NodeFactory.createURI(CONTAINER + "2"), cursor.getKey());
+    }
+
+    @Test
+    public void testCursorSingleTerm()
+    {
+        KeysetCursor cursor = KeysetCursor.parse("<" + CONTAINER + "2>");
+        
+        assertEquals(NodeFactory.createURI(CONTAINER + "2"), cursor.getValue());
+        assertNull(cursor.getKey());
+    }
+
+    @Test
+    public void testCursorPlainString()
+    {
+        KeysetCursor cursor = KeysetCursor.parse("not a term");
+        
+        assertNotNull(cursor.getValue());
+        assertTrue(cursor.getValue().isLiteral());
+        assertEquals("not a term", cursor.getValue().getLiteralLexicalForm());
+    }
+    
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.processor.util;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.rdf.model.ModelFactory;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests name path lookup and language preference of the property index.
+ *
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ */
+public class PropertyIndexTest
+{
+
+    public static final String DATA =
+            "@prefix dct: <http://purl.org/dc/terms/> .\n" +
+            "@prefix foaf: <http://xmlns.com/foaf/0.1/> .\n" +
+            "<http://localhost/doc> dct:title \"Title\"@en, \"Titel\"@da, \"Plain title\" ;\n" +
+            "    foaf:maker [ foaf:name \"Alice\" ], [ foaf:name \"Bob\" ] ;\n" +
+            "    dct:identifier \"id\" .\n";
+
+    public static final Node DOC = NodeFactory.createURI("http://localhost/doc");
+
+    private static Graph graph;
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+        graph = ModelFactory.createDefaultModel().read(new StringReader(DATA), null, "TTL").getGraph();
+    }
+
+    @Test
+    public void testSingleValue()
+    {
+        assertEquals("id", new PropertyIndex(graph).getLiteral(DOC, "identifier").getLiteralLexicalForm());
+    }
+
+    @Test
+    public void testMissingValue()
+    {
+        PropertyIndex index = new PropertyIndex(graph);
+        
+        assertNull(index.getLiteral(DOC, "description"));
+        assertNull(index.getLiteral(DOC, "maker.mbox"));
+        assertTrue(index.getLiterals(NodeFactory.createURI("http://localhost/other"), "title").isEmpty());
+    }
+
+    @Test
+    public void testNamePath()
+    {
+        assertEquals(2, new PropertyIndex(graph).getLiterals(DOC, "maker.name").size());
+    }
+
+    @Test
+    public void testNoLanguagePreferencePicksPlainLiteral()
+    {
+        assertEquals("Plain title", new PropertyIndex(graph).getLiteral(DOC, "title").getLiteralLexicalForm());
+    }
+
+    @Test
+    public void testPreferredLanguage()
+    {
+        assertEquals("Titel", new PropertyIndex(graph, Arrays.asList("da", "en")).getLiteral(DOC, "title").getLiteralLexicalForm());
+        assertEquals("Title", new PropertyIndex(graph, Arrays.asList("en", "da")).getLiteral(DOC, "title").getLiteralLexicalForm());
+    }
+
+    @Test
+    public void testLanguageRange()
+    {
+        PropertyIndex index = new PropertyIndex(graph, Arrays.asList("en"));
+        
+        assertEquals(0, index.getRank(NodeFactory.createLiteral("x", "en-GB")));
+        assertEquals(1, index.getRank(NodeFactory.createLiteral("x")));
+        assertEquals(2, index.getRank(NodeFactory.createLiteral("x", "da")));
+    }
+
+    @Test
+    public void testUnknownLanguagePicksPlainLiteral()
+    {
+        assertEquals("Plain title", new PropertyIndex(graph, Collections.singletonList("fr")).getLiteral(DOC, "title").getLiteralLexicalForm());
+    }
+
+}
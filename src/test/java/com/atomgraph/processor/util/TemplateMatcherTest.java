@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.processor.util;
+
+import com.atomgraph.processor.model.Template;
+import com.atomgraph.processor.model.impl.TemplateImpl;
+import com.sun.jersey.api.uri.UriTemplate;
+import java.io.StringReader;
+import java.net.URI;
+import org.apache.jena.enhanced.BuiltinPersonalities;
+import org.apache.jena.ontology.OntDocumentManager;
+import org.apache.jena.ontology.OntModel;
+import org.apache.jena.ontology.OntModelSpec;
+import org.apache.jena.ontology.Ontology;
+import org.apache.jena.rdf.model.ModelFactory;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests template matching order: import precedence first, then priority, then URI template specificity.
+ * Indexed and unindexed matchers must return the same templates.
+ *
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ */
+public class TemplateMatcherTest
+{
+
+    public static final String NS = "http://example.org/ns#";
+    public static final String IMPORTED_NS = "http://example.org/imported#";
+    public static final URI BASE = URI.create("http://localhost/");
+    
+    public static final String SITEMAP =
+            "@prefix : <" + NS + "> .\n" +
+            "@prefix imp: <" + IMPORTED_NS + "> .\n" +
+            "@prefix ldt: <http://www.w3.org/ns/ldt#> .\n" +
+            "@prefix rdfs: <http://www.w3.org/2000/01/rdf-schema#> .\n" +
+            "@prefix owl: <http://www.w3.org/2002/07/owl#> .\n" +
+            ": a owl:Ontology ; owl:imports imp: .\n" +
+            "imp: a owl:Ontology .\n" +
+            ":Item a ldt:Template ; ldt:path \"/items/{id}\" ; rdfs:isDefinedBy : .\n" +
+            ":SpecialItem a ldt:Template ; ldt:path \"/items/special\" ; rdfs:isDefinedBy : .\n" +
+            ":Preferred a ldt:Template ; ldt:path \"/things/{id}\" ; ldt:priority 1 ; rdfs:isDefinedBy : .\n" +
+            ":Other a ldt:Template ; ldt:path \"/things/{name}\" ; rdfs:isDefinedBy : .\n" +
+            ":Catchall a ldt:Template ; ldt:path \"{path: .*}\" ; ldt:priority -1 ; rdfs:isDefinedBy : .\n" +
+            "imp:Item a ldt:Template ; ldt:path \"/items/{id}\" ; ldt:priority 10 ; rdfs:isDefinedBy imp: .\n" +
+            "imp:Imported a ldt:Template ; ldt:path \"/imported/{id}\" ; rdfs:isDefinedBy imp: .\n";
+
+    private static Ontology ontology;
+    
+    @BeforeClass
+    public static void setUpClass()
+    {
+        BuiltinPersonalities.model.add(Template.class, TemplateImpl.factory);
+
+        OntDocumentManager manager = new OntDocumentManager();
+        manager.setProcessImports(false); // imported ontology is in the same model
+        OntModelSpec spec = new OntModelSpec(OntModelSpec.OWL_MEM);
+        spec.setDocumentManager(manager);
+        
+        OntModel ontModel = ModelFactory.createOntologyModel(spec);
+        ontModel.read(new StringReader(SITEMAP), NS, "TURTLE");
+        ontology = ontModel.getOntology(NS);
+    }
+    
+    public static Template match(TemplateMatcher matcher, String path)
+    {
+        return matcher.match(BASE.resolve(path), BASE);
+    }
+    
+    public static void assertMatch(String expected, String path)
+    {
+        Template indexed = match(new TemplateMatcher(ontology, true), path);
+        Template unindexed = match(new TemplateMatcher(ontology, false), path);
+        
+        if (expected == null)
+        {
+            assertNull(indexed);
+            assertNull(unindexed);
+        }
+        else
+        {
+            assertEquals(expected, indexed.getURI());
+            assertEquals(expected, unindexed.getURI());
+        }
+    }
+    
+    @Test
+    public void testSitemapTemplateOverridesImported()
+    {
+        assertMatch(NS + "Item", "items/1");
+    }
+
+    @Test
+    public void testLiteralTemplateOverridesVariable()
+    {
+        assertMatch(NS + "SpecialItem", "items/special");
+    }
+
+    @Test
+    public void testHigherPriority()
+    {
+        assertMatch(NS + "Preferred", "things/1");
+    }
+
+    @Test
+    public void testSitemapCatchallOverridesImported()
+    {
+        assertMatch(NS + "Catchall", "imported/1");
+    }
+
+    @Test
+    public void testCatchall()
+    {
+        assertMatch(NS + "Catchall", "whatever/else");
+    }
+
+    @Test
+    public void testIndexed()
+    {
+        assertTrue(new TemplateMatcher(ontology).isIndexed());
+        assertFalse(new TemplateMatcher(ontology, false).isIndexed());
+    }
+
+    @Test
+    public void testLiteralPrefix()
+    {
+        assertEquals("/items/", TemplateMatcher.getLiteralPrefix(new UriTemplate("/items/{id}")));
+        assertEquals("", TemplateMatcher.getLiteralPrefix(new UriTemplate("{path: .*}")));
+    }
+    
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.server.util;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests where batches of the bulk import are cut.
+ *
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ */
+public class BatchStreamTest
+{
+
+    public static final String DATA =
+            "@prefix dct: <http://purl.org/dc/terms/> .\n" +
+            "<http://localhost/1> dct:title \"1\" ; dct:creator [ dct:title \"a\" ; dct:title \"b\" ] ; dct:description \"1\" .\n" +
+            "<http://localhost/2> dct:title \"2\" ; dct:description \"2\" .\n" +
+            "<http://localhost/3> dct:title \"3\" .\n";
+
+    public List<Model> parse(int batchSize)
+    {
+        final List<Model> batches = new ArrayList<>();
+        
+        BatchStream stream = new BatchStream(batchSize)
+        {
+
+            @Override
+            public void batch(Model batch)
+            {
+                batches.add(batch);
+            }
+            
+        };
+        
+        RDFDataMgr.parse(stream, new StringReader(DATA), "http://localhost/", Lang.TURTLE);
+        return batches;
+    }
+    
+    @Test
+    public void testResourcesAreNotSplit()
+    {
+        List<Model> batches = parse(1);
+        
+        assertEquals(3, batches.size());
+        assertEquals(5, batches.get(0).size());
+        assertEquals(2, batches.get(1).size());
+        assertEquals(1, batches.get(2).size());
+    }
+
+    @Test
+    public void testBlankNodeStaysWithParent()
+    {
+        Model first = parse(1).get(0);
+        
+        assertTrue(first.contains(ResourceFactory.createResource("http://localhost/1"), null));
+        assertEquals(2, first.listSubjects().toList().size()); // the resource and its blank node
+    }
+
+    @Test
+    public void testBatchSize()
+    {
+        List<Model> batches = parse(6);
+        
+        assertEquals(2, batches.size());
+        assertEquals(7, batches.get(0).size());
+        assertEquals(1, batches.get(1).size());
+    }
+
+    @Test
+    public void testSingleBatch()
+    {
+        List<Model> batches = parse(100);
+        
+        assertEquals(1, batches.size());
+        assertEquals(ModelFactory.createDefaultModel().read(new StringReader(DATA), "http://localhost/", "TTL").size(), batches.get(0).size());
+        assertEquals(8, batches.get(0).size());
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017 Martynas Jusevičius <martynas@atomgraph.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.atomgraph.server.util;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import org.apache.jena.update.UpdateFactory;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests extraction of affected resources and graphs from update requests.
+ *
+ * @author Martynas Jusevičius <martynas@atomgraph.com>
+ */
+public class InvalidationTest
+{
+
+    public Invalidation fromUpdate(String update)
+    {
+        return Invalidation.fromUpdateRequest(UpdateFactory.create(update));
+    }
+    
+    @Test
+    public void testInsertData()
+    {
+        Invalidation invalidation = fromUpdate("INSERT DATA { <http://localhost/a> <http://localhost/p> <http://localhost/b> . GRAPH <http://localhost/g> { <http://localhost/c> <http://localhost/p> \"o\" } }");
+        
+        assertFalse(invalidation.isAll());
+        assertEquals(new HashSet<>(Arrays.asList("http://localhost/a", "http://localhost/c")), invalidation.getSubjects());
+        assertEquals(Collections.singleton("http://localhost/g"), invalidation.getGraphs());
+    }
+
+    @Test
+    public void testFragmentStripped()
+    {
+        Invalidation invalidation = fromUpdate("INSERT DATA { <http://localhost/c/doc#this> <http://localhost/p> \"o\" . <http://localhost/c/doc> <http://localhost/p> <http://localhost/c/doc#this> }");
+        
+        assertEquals(Collections.singleton("http://localhost/c/doc"), invalidation.getSubjects());
+        assertEquals(Collections.singleton("http://localhost/c/doc"), Invalidation.fromSubjects(Collections.singleton("http://localhost/c/doc#this")).getSubjects());
+        assertEquals("http://localhost/c/", ModelCache.getContainerURI(Invalidation.getDocumentURI("http://localhost/c/doc#this")));
+    }
+
+    @Test
+    public void testDeleteData()
+    {
+        Invalidation invalidation = fromUpdate("DELETE DATA { <http://localhost/a> <http://localhost/p> \"o\" }");
+        
+        assertFalse(invalidation.isAll());
+        assertEquals(Collections.singleton("http://localhost/a"), invalidation.getSubjects());
+        assertTrue(invalidation.getGraphs().isEmpty());
+    }
+
+    @Test
+    public void testDeleteWhereBoundSubject()
+    {
+        Invalidation invalidation = fromUpdate("DELETE WHERE { <http://localhost/a> ?p ?o }");
+        
+        assertFalse(invalidation.isAll());
+        assertEquals(Collections.singleton("http://localhost/a"), invalidation.getSubjects());
+    }
+
+    @Test
+    public void testVariableSubjectInvalidatesAll()
+    {
+        assertTrue(fromUpdate("DELETE WHERE { ?s <http://localhost/p> ?o }").isAll());
+        assertTrue(fromUpdate("DELETE { ?s ?p ?o } INSERT { <http://localhost/a> ?p ?o } WHERE { ?s ?p ?o }").isAll());
+    }
+
+    @Test
+    public void testModifyWith()
+    {
+        Invalidation invalidation = fromUpdate("WITH <http://localhost/g> DELETE { <http://localhost/a> ?p ?o } INSERT { <http://localhost/b> ?p ?o } WHERE { <http://localhost/a> ?p ?o }");
+        
+        assertFalse(invalidation.isAll());
+        assertEquals(new HashSet<>(Arrays.asList("http://localhost/a", "http://localhost/b")), invalidation.getSubjects());
+        assertEquals(Collections.singleton("http://localhost/g"), invalidation.getGraphs());
+    }
+
+    @Test
+    public void testVariableGraphInvalidatesAll()
+    {
+        assertTrue(fromUpdate("DELETE { GRAPH ?g { <http://localhost/a> ?p ?o } } WHERE { GRAPH ?g { <http://localhost/a> ?p ?o } }").isAll());
+    }
+
+    @Test
+    public void testDropClear()
+    {
+        Invalidation invalidation = fromUpdate("DROP GRAPH <http://localhost/g>");
+        
+        assertFalse(invalidation.isAll());
+        assertEquals(Collections.singleton("http://localhost/g"), invalidation.getGraphs());
+        assertTrue(fromUpdate("CLEAR DEFAULT").isAll());
+        assertTrue(fromUpdate("DROP ALL").isAll());
+    }
+
+    @Test
+    public void testLoad()
+    {
+        assertEquals(Collections.singleton("http://localhost/g"), fromUpdate("LOAD <http://localhost/data> INTO GRAPH <http://localhost/g>").getGraphs());
+        assertTrue(fromUpdate("LOAD <http://localhost/data>").isAll());
+    }
+
+    @Test
+    public void testBinaryOps()
+    {
+        Invalidation invalidation = fromUpdate("COPY <http://localhost/g1> TO <http://localhost/g2>");
+        
+        assertFalse(invalidation.isAll());
+        assertEquals(new HashSet<>(Arrays.asList("http://localhost/g1", "http://localhost/g2")), invalidation.getGraphs());
+        assertTrue(fromUpdate("ADD DEFAULT TO <http://localhost/g>").isAll());
+    }
+
+    @Test
+    public void testCreateChangesNothing()
+    {
+        assertTrue(fromUpdate("CREATE GRAPH <http://localhost/g>").isEmpty());
+    }
+
+    @Test
+    public void testFromGraph()
+    {
+        Invalidation invalidation = Invalidation.fromGraph(URI.create("http://localhost/g"));
+        
+        assertEquals(Collections.singleton("http://localhost/g"), invalidation.getGraphs());
+        assertEquals(Collections.singleton("http://localhost/g"), invalidation.getSubjects());
+    }
+
+}